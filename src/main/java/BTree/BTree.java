@@ -1,139 +1,675 @@
 package BTree;
 
-import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Vector;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 /**
  * A B+ tree Since the structures and behaviors between internal node and
  * external node are different, so there are two different classes for each kind
  * of node.
  *
+ * Every node is a page of a page store and nodes refer to each other by page
+ * index: inner nodes to their children and leaves to the next leaf. Nodes are
+ * read through a cache, so an operation only reads the nodes on its path from
+ * the root and only the nodes it changed are written back.
+ *
+ * Many threads may use the tree at once, with optimistic lock coupling:
+ * readers take no lock, they check the version of every node after reading it
+ * and start over when it changed. A writer locks only the leaf of its key
+ * when the change fits in it. Splits and merges take the structure lock, so
+ * there is one at a time and inner nodes only change under it, and lock every
+ * node they change until they are done.
+ *
  * @param < TKey > the data type of the key
  * @param < TValue > the data type of the value
  */
-@SuppressWarnings({ "unchecked", "removal", "rawtypes" })
-public class BTree<TKey extends Comparable<TKey>, TValue> implements Serializable {
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class BTree<TKey extends Comparable<TKey>, TValue> {
+    private final NodeCache cache;
     /**
+     * Page index of the root node.
      * @uml.property name="root"
-     * @uml.associationEnd multiplicity="(1 1)"
      */
-    private BTreeNode<TKey> root;
+    private volatile int root;
+    // version lock of the root pointer
+    private final OptimisticLock rootLock = new OptimisticLock();
+    private final ReentrantLock structureLock = new ReentrantLock();
+    // writers share it, writeDirtyNodes takes it alone to see no half done
+    // split or merge
+    private final ReentrantReadWriteLock changes = new ReentrantReadWriteLock();
+
+    // the leaf found for a key, with the version it was read at
+    private static final class Probe<TKey extends Comparable<TKey>, TValue> {
+        final BTreeLeafNode<TKey, TValue> leaf;
+        final long version;
+        final boolean root;
+
+        Probe(BTreeLeafNode<TKey, TValue> leaf, long version, boolean root) {
+            this.leaf = leaf;
+            this.version = version;
+            this.root = root;
+        }
+    }
+
     /**
-     * @uml.property name="tableName"
+     * An empty tree whose nodes hold up to order keys, an even number of at
+     * least 4.
      */
-    private String tableName;
+    public BTree(int order, PageStore store) {
+        if (order < 4 || order % 2 != 0)
+            throw new IllegalArgumentException("order must be an even number of at least 4");
 
-    public BTree() {
-        this.root = new BTreeLeafNode<TKey, TValue>();
+        this.cache = new NodeCache(store, structureLock);
+        BTreeLeafNode<TKey, TValue> leaf = new BTreeLeafNode<TKey, TValue>(cache.newPageIndex(), order);
+        cache.add(leaf);
+        this.root = leaf.getPageIndex();
     }
 
     /**
-     * Insert a new key and its associated value into the B+ tree.
+     * The tree already in store whose root node is at page root.
+     */
+    public BTree(PageStore store, int root) {
+        this.cache = new NodeCache(store, structureLock);
+        this.root = root;
+    }
+
+    public int getRoot() {
+        return this.root;
+    }
+
+    public int getOrder() {
+        return cache.get(root).getOrder();
+    }
+
+    /**
+     * Insert a new key and its associated value into the B+ tree, or replace
+     * the value of a key already in it.
      */
     public void insert(TKey key, TValue value) {
-        BTreeLeafNode<TKey, TValue> leaf = this.findLeafNodeShouldContainKey(key);
-        leaf.insertKey(key, value);
+        compute(key, current -> value);
+    }
 
-        if (leaf.isOverflow()) {
-            BTreeNode<TKey> n = leaf.dealOverflow();
-            if (n != null)
-                this.root = n;
-        }
+    /**
+     * Replace the value associated with a key already in the tree.
+     */
+    public void update(TKey key, TValue value) {
+        compute(key, current -> current == null ? null : value);
     }
 
     /**
-     * Search a key value on the tree and return its associated value.
+     * Delete a key and its associated value from the tree.
      */
-    public TValue search(TKey key) {
-        BTreeLeafNode<TKey, TValue> leaf = this.findLeafNodeShouldContainKey(key);
+    public void delete(TKey key) {
+        compute(key, current -> null);
+    }
 
-        int index = leaf.search(key);
-        return (index == -1) ? null : leaf.getValue(index);
+    /**
+     * Replace the value of key with what function returns for the current one,
+     * null if the key is not in the tree. The key is inserted if it was not in
+     * the tree and deleted if function returns null. function is called once,
+     * while the leaf of the key is locked, so it may change the value in place.
+     */
+    public void compute(TKey key, Function<TValue, TValue> function) {
+        changes.readLock().lock();
+        try {
+            while (true) {
+                try {
+                    if (computeInLeaf(key, function))
+                        return;
+                    break;
+                } catch (OptimisticLock.Restart restart) {
+                }
+            }
+            computeWithStructureLock(key, function);
+        } finally {
+            changes.readLock().unlock();
+            cache.trim();
+        }
     }
 
-    public Vector<Pair<TKey, TValue>> searchStartingFrom(TKey lower, boolean inclusive) {
-        Vector<Pair<TKey, TValue>> result = new Vector<>();
+    // applies function with only the leaf of key locked. returns false without
+    // calling it when the result could split or merge the leaf
+    private boolean computeInLeaf(TKey key, Function<TValue, TValue> function) {
+        Probe<TKey, TValue> probe = findLeaf(key);
+        BTreeLeafNode<TKey, TValue> leaf = probe.leaf;
+        leaf.lock.upgradeToWriteLockOrRestart(probe.version);
+        try {
+            int index = leaf.search(key);
 
-        BTreeLeafNode<TKey, TValue> current = findLeafNodeShouldContainKey(lower);
-        while (current != null) {
-            for (int i = 0; i < current.keyCount; i++) {
-                TKey key = current.getKey(i);
+            // an insert needs room in the leaf, a delete must leave it at least
+            // half full
+            if (index == -1 ? leaf.getKeyCount() == leaf.getOrder() : !probe.root && !leaf.canLendAKey())
+                return false;
 
-                if (inclusive ? key.compareTo(lower) >= 0 : key.compareTo(lower) > 0)
-                    result.add(new Pair<>(key, current.getValue(i)));
+            TValue value = function.apply(index == -1 ? null : leaf.getValue(index));
+            if (index == -1) {
+                if (value == null)
+                    return true;
+                leaf.insertKey(key, value);
+            } else if (value == null) {
+                leaf.delete(key);
+            } else {
+                leaf.setValue(index, value);
             }
+            cache.changed(leaf);
+            return true;
+        } finally {
+            leaf.lock.writeUnlock();
+        }
+    }
 
-            current = (BTreeLeafNode) current.getNextNode();
+    private void computeWithStructureLock(TKey key, Function<TValue, TValue> function) {
+        ArrayList<OptimisticLock> locked = new ArrayList<>();
+        structureLock.lock();
+        try {
+            // nodes are neither evicted nor split or merged by anyone else now,
+            // so the path can be read without locks
+            ArrayList<BTreeInnerNode<TKey>> path = new ArrayList<>();
+            ArrayList<Integer> slots = new ArrayList<>();
+            BTreeLeafNode<TKey, TValue> leaf = this.findLeafNodeShouldContainKey(key, path, slots);
+            lock(leaf, locked);
+
+            int index = leaf.search(key);
+            TValue value = function.apply(index == -1 ? null : leaf.getValue(index));
+            if (index == -1) {
+                if (value != null)
+                    insert(leaf, key, value, path, locked);
+            } else if (value == null) {
+                delete(leaf, key, path, slots, locked);
+            } else {
+                leaf.setValue(index, value);
+                cache.changed(leaf);
+            }
+        } finally {
+            for (OptimisticLock lock : locked)
+                lock.writeUnlock();
+            structureLock.unlock();
         }
+    }
 
-        return result;
+    // nodes stay locked until the split or merge is done, a reader that saw a
+    // node before it changed fails the check of that node or of its parent
+    private void lock(BTreeNode<TKey> node, List<OptimisticLock> locked) {
+        lock(node.lock, locked);
     }
 
-    public Vector<Pair<TKey, TValue>> searchTill(TKey upper, boolean inclusive) {
-        Vector<Pair<TKey, TValue>> result = new Vector<>();
+    private static void lock(OptimisticLock lock, List<OptimisticLock> locked) {
+        if (!locked.contains(lock)) {
+            lock.writeLockOrRestart();
+            locked.add(lock);
+        }
+    }
+
+    private void insert(BTreeLeafNode<TKey, TValue> leaf, TKey key, TValue value, List<BTreeInnerNode<TKey>> path,
+            List<OptimisticLock> locked) {
+        leaf.insertKey(key, value);
+        cache.changed(leaf);
+
+        // split the nodes on the path that overflow, from the leaf up
+        BTreeNode<TKey> node = leaf;
+        for (int level = path.size() - 1; node.isOverflow(); level--) {
+            TKey upKey = node.getKey(node.getKeyCount() / 2);
+            BTreeNode<TKey> newRNode = node.split(cache.newPageIndex());
+            cache.add(newRNode);
+
+            BTreeInnerNode<TKey> parent;
+            if (level >= 0) {
+                parent = path.get(level);
+                lock(parent, locked);
+            } else {
+                parent = new BTreeInnerNode<TKey>(cache.newPageIndex(), node.getOrder());
+                parent.setChild(0, node.getPageIndex());
+                cache.add(parent);
+                lock(rootLock, locked);
+                this.root = parent.getPageIndex();
+            }
+
+            // push up a key to parent internal node
+            parent.pushUpKey(upKey, newRNode.getPageIndex());
+            cache.changed(parent);
+            node = parent;
+        }
+    }
+
+    private void delete(BTreeLeafNode<TKey, TValue> leaf, TKey key, List<BTreeInnerNode<TKey>> path,
+            List<Integer> slots, List<OptimisticLock> locked) {
+        leaf.delete(key);
+        cache.changed(leaf);
+
+        // borrow a key from a sibling under the same parent, or else merge
+        // with one, while a node on the path underflows
+        BTreeNode<TKey> node = leaf;
+        for (int level = path.size() - 1; level >= 0 && node.isUnderflow(); level--) {
+            BTreeInnerNode<TKey> parent = path.get(level);
+            int slot = slots.get(level);
+            lock(parent, locked);
+            cache.changed(parent);
+
+            BTreeNode<TKey> leftSibling = slot > 0 ? cache.get(parent.getChild(slot - 1)) : null;
+            if (leftSibling != null) {
+                lock(leftSibling, locked);
+                if (leftSibling.canLendAKey()) {
+                    parent.setKey(slot - 1, node.transferFromSibling(parent.getKey(slot - 1), leftSibling,
+                            leftSibling.getKeyCount() - 1));
+                    cache.changed(leftSibling);
+                    break;
+                }
+            }
+
+            BTreeNode<TKey> rightSibling = slot < parent.getKeyCount() ? cache.get(parent.getChild(slot + 1))
+                    : null;
+            if (rightSibling != null) {
+                lock(rightSibling, locked);
+                if (rightSibling.canLendAKey()) {
+                    parent.setKey(slot, node.transferFromSibling(parent.getKey(slot), rightSibling, 0));
+                    cache.changed(rightSibling);
+                    break;
+                }
+            }
+
+            // Can not borrow a key from any sibling, then do fusion with sibling
+            if (leftSibling != null) {
+                leftSibling.fusionWithSibling(parent.getKey(slot - 1), node);
+                parent.deleteAt(slot - 1);
+                cache.changed(leftSibling);
+                cache.free(node);
+            } else {
+                node.fusionWithSibling(parent.getKey(slot), rightSibling);
+                parent.deleteAt(slot);
+                cache.free(rightSibling);
+            }
+            node = parent;
+        }
+
+        // a root left without keys hands over to its only child
+        BTreeNode<TKey> rootNode = cache.get(root);
+        if (rootNode.getNodeType() == TreeNodeType.InnerNode && rootNode.getKeyCount() == 0) {
+            lock(rootLock, locked);
+            lock(rootNode, locked);
+            this.root = ((BTreeInnerNode<TKey>) rootNode).getChild(0);
+            cache.free(rootNode);
+        }
+    }
 
-        BTreeLeafNode<TKey, TValue> current = getSmallest();
-        BTreeLeafNode<TKey, TValue> end = (BTreeLeafNode) findLeafNodeShouldContainKey(upper).getNextNode(); // stops
-                                                                                                             // when
-                                                                                                             // this is
-                                                                                                             // reached
+    /**
+     * Build a tree bottom-up from keys in ascending order, without duplicates,
+     * and their values: the leaves are filled left to right, then every inner
+     * level is built over the level below it. Nodes hold fillFactor of the
+     * keys they can take, but never fewer than a node may hold after a delete.
+     */
+    public static <TKey extends Comparable<TKey>, TValue> BTree<TKey, TValue> build(List<TKey> keys,
+            List<TValue> values, int order, double fillFactor, PageStore store) {
+        BTree<TKey, TValue> tree = new BTree<TKey, TValue>(order, store);
+        if (keys.isEmpty())
+            return tree;
 
-        while (current != end) {
+        // the leaf of the empty tree is the first one
+        BTreeLeafNode<TKey, TValue> first = (BTreeLeafNode<TKey, TValue>) tree.cache.get(tree.root);
 
-            for (int i = 0; i < current.keyCount; i++) {
-                TKey key = current.getKey(i);
+        // a node underflows below half of the keys it can hold
+        int minimum = (order + 1) / 2;
 
-                if (inclusive ? key.compareTo(upper) <= 0 : key.compareTo(upper) < 0)
-                    result.add(new Pair<>(key, current.getValue(i)));
+        ArrayList<BTreeNode<TKey>> level = new ArrayList<>();
+        ArrayList<TKey> lowest = new ArrayList<>(); // smallest key under every node of level
+        int next = 0;
+        for (int size : nodeSizes(keys.size(), minimum, order, fillFactor)) {
+            BTreeLeafNode<TKey, TValue> leaf = level.isEmpty() ? first
+                    : new BTreeLeafNode<TKey, TValue>(tree.cache.newPageIndex(), order);
+            for (int i = 0; i < size; i++, next++) {
+                leaf.setKey(i, keys.get(next));
+                leaf.setValue(i, values.get(next));
             }
+            leaf.keyCount = size;
+
+            if (!level.isEmpty())
+                ((BTreeLeafNode<TKey, TValue>) level.get(level.size() - 1)).setNext(leaf.getPageIndex());
+            tree.cache.add(leaf);
+            level.add(leaf);
+            lowest.add(leaf.getKey(0));
+        }
+
+        while (level.size() > 1) {
+            ArrayList<BTreeNode<TKey>> upper = new ArrayList<>();
+            ArrayList<TKey> upperLowest = new ArrayList<>();
+            next = 0;
+            for (int size : nodeSizes(level.size(), minimum + 1, order + 1, fillFactor)) {
+                BTreeInnerNode<TKey> inner = new BTreeInnerNode<TKey>(tree.cache.newPageIndex(), order);
+                upperLowest.add(lowest.get(next));
+                for (int i = 0; i < size; i++, next++) {
+                    inner.setChild(i, level.get(next).getPageIndex());
+                    if (i > 0)
+                        inner.setKey(i - 1, lowest.get(next));
+                }
+                inner.keyCount = size - 1;
+
+                tree.cache.add(inner);
+                upper.add(inner);
+            }
+
+            level = upper;
+            lowest = upperLowest;
+        }
+
+        tree.root = level.get(0).getPageIndex();
+        return tree;
+    }
 
-            current = (BTreeLeafNode) current.getNextNode();
+    // sizes of the nodes count entries are split into, each between minimum
+    // and maximum unless all of them fit in a single node
+    private static int[] nodeSizes(int count, int minimum, int maximum, double fillFactor) {
+        int target = Math.max(minimum, Math.min(maximum, (int) Math.round(maximum * fillFactor)));
+        int nodes = (count + target - 1) / target;
+        if (nodes > 1 && count / nodes < minimum)
+            nodes--;
+
+        int[] sizes = new int[nodes];
+        for (int i = 0; i < nodes; i++)
+            sizes[i] = count / nodes + (i < count % nodes ? 1 : 0);
+        return sizes;
+    }
+
+    /**
+     * Search a key value on the tree and return its associated value.
+     */
+    public TValue search(TKey key) {
+        try {
+            while (true) {
+                try {
+                    Probe<TKey, TValue> probe = findLeaf(key);
+                    int index = search(probe.leaf, probe.version, key);
+                    TValue value = index == -1 ? null : probe.leaf.getValue(index);
+                    probe.leaf.lock.checkOrRestart(probe.version);
+                    return value;
+                } catch (OptimisticLock.Restart restart) {
+                }
+            }
+        } finally {
+            cache.trim();
         }
+    }
 
+    public Vector<Pair<TKey, TValue>> searchStartingFrom(TKey lower, boolean inclusive) {
+        return scan(lower, inclusive, null, false);
+    }
+
+    public Vector<Pair<TKey, TValue>> searchTill(TKey upper, boolean inclusive) {
+        return scan(null, false, upper, inclusive);
+    }
+
+    private Vector<Pair<TKey, TValue>> scan(TKey lower, boolean lowerInclusive, TKey upper, boolean upperInclusive) {
+        Vector<Pair<TKey, TValue>> result = new Vector<>();
+        Cursor cursor = cursor(lower, lowerInclusive, upper, upperInclusive);
+        try {
+            while (cursor.hasNext())
+                result.add(cursor.next());
+        } finally {
+            cursor.close();
+        }
         return result;
     }
 
     /**
-     * Delete a key and its associated value from the tree.
+     * A cursor over the entries from lower, or from the first key if it is
+     * null, up to upper, or to the last key, in key order.
      */
-    public void delete(TKey key) {
-        BTreeLeafNode<TKey, TValue> leaf = this.findLeafNodeShouldContainKey(key);
+    public Cursor cursor(TKey lower, boolean lowerInclusive, TKey upper, boolean upperInclusive) {
+        Cursor cursor = new Cursor(upper, upperInclusive);
+        cursor.seek(lower, lowerInclusive);
+        return cursor;
+    }
+
+    /**
+     * Walks the leaf chain holding a copy of one leaf at a time, so a scan
+     * takes the same memory however many keys it covers and stops at the
+     * first key past its upper bound. Each leaf is copied and then checked
+     * like any read; if it changed meanwhile, or changes while the caller is
+     * between two leaves, the cursor finds its place again from the root,
+     * after the last key it returned.
+     */
+    public final class Cursor implements Iterator<Pair<TKey, TValue>> {
+        private final TKey upper;
+        private final boolean upperInclusive;
+        // where the entries not returned yet start
+        private TKey lower;
+        private boolean lowerInclusive;
+        private final ArrayList<Pair<TKey, TValue>> entries = new ArrayList<>();
+        private int position;
+        // the leaf entries was copied from, null to look it up again
+        private BTreeLeafNode<TKey, TValue> leaf;
+        private long version;
+        private boolean done;
+
+        private Cursor(TKey upper, boolean upperInclusive) {
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+        }
+
+        /**
+         * Move to the first key from key on, the first key of the tree if it
+         * is null.
+         */
+        public void seek(TKey key, boolean inclusive) {
+            lower = key;
+            lowerInclusive = inclusive;
+            entries.clear();
+            position = 0;
+            leaf = null;
+            done = false;
+        }
+
+        public boolean hasNext() {
+            while (position == entries.size()) {
+                if (done)
+                    return false;
+                nextLeaf();
+            }
+            return true;
+        }
+
+        public Pair<TKey, TValue> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return entries.get(position++);
+        }
+
+        // the cursor takes no locks, closing it only lets the cache evict the
+        // leaves it went through
+        public void close() {
+            entries.clear();
+            position = 0;
+            leaf = null;
+            done = true;
+            cache.trim();
+        }
+
+        // copies the entries of the next leaf in the bounds, they may be none
+        private void nextLeaf() {
+            entries.clear();
+            position = 0;
+            while (true) {
+                try {
+                    if (leaf == null) {
+                        Probe<TKey, TValue> probe = findLeaf(lower);
+                        leaf = probe.leaf;
+                        version = probe.version;
+                    } else {
+                        int next = leaf.getNext();
+                        leaf.lock.checkOrRestart(version);
+                        if (next == 0) {
+                            done = true;
+                            return;
+                        }
+
+                        BTreeLeafNode<TKey, TValue> nextLeaf = (BTreeLeafNode<TKey, TValue>) get(next, leaf, version);
+                        long nextVersion = nextLeaf.lock.readLockOrRestart();
+                        leaf.lock.checkOrRestart(version);
+                        leaf = nextLeaf;
+                        version = nextVersion;
+                        // leaves already copied can be evicted while the scan goes on
+                        cache.trim();
+                    }
+
+                    done = copy(leaf, version, lower, lowerInclusive, upper, upperInclusive, entries);
+                    leaf.lock.checkOrRestart(version);
+                    if (!entries.isEmpty()) {
+                        lower = entries.get(entries.size() - 1).getFirst();
+                        lowerInclusive = false;
+                    }
+                    return;
+                } catch (OptimisticLock.Restart restart) {
+                    entries.clear();
+                    leaf = null;
+                    done = false;
+                }
+            }
+        }
+    }
 
-        if (leaf.delete(key) && leaf.isUnderflow()) {
-            BTreeNode<TKey> n = leaf.dealUnderflow();
-            if (n != null)
-                this.root = n;
+    // copies the entries of leaf between the bounds, returns whether the leaf
+    // has a key past upper
+    private boolean copy(BTreeLeafNode<TKey, TValue> leaf, long version, TKey lower, boolean lowerInclusive,
+            TKey upper, boolean upperInclusive, List<Pair<TKey, TValue>> entries) {
+        try {
+            int start = lower == null ? 0 : lowerInclusive ? leaf.lowerBound(lower) : leaf.upperBound(lower);
+            for (int i = start; i < leaf.getKeyCount(); i++) {
+                TKey key = leaf.getKey(i);
+                if (upper != null) {
+                    int diff = key.compareTo(upper);
+                    if (diff > 0 || (diff == 0 && !upperInclusive))
+                        return true;
+                }
+                entries.add(new Pair<>(key, leaf.getValue(i)));
+            }
+            return false;
+        } catch (RuntimeException e) {
+            leaf.lock.checkOrRestart(version);
+            throw e;
         }
     }
 
     /**
-     * Search the leaf node which should contain the specified key
+     * Search the leaf node which should contain the specified key, the first
+     * leaf for a null key, without taking a lock. A child is only used after
+     * the parent it was read from is checked again, so a split or merge in
+     * between is noticed.
      */
-    @SuppressWarnings("unchecked")
-    private BTreeLeafNode<TKey, TValue> findLeafNodeShouldContainKey(TKey key) {
-        BTreeNode<TKey> node = this.root;
+    private Probe<TKey, TValue> findLeaf(TKey key) {
+        long rootVersion = rootLock.readLockOrRestart();
+        BTreeNode<TKey> node;
+        try {
+            node = cache.get(root);
+        } catch (RuntimeException e) {
+            rootLock.checkOrRestart(rootVersion);
+            throw e;
+        }
+        long version = node.lock.readLockOrRestart();
+        rootLock.checkOrRestart(rootVersion);
+
+        boolean isRoot = true;
+        while (node.getNodeType() == TreeNodeType.InnerNode) {
+            BTreeInnerNode<TKey> inner = (BTreeInnerNode<TKey>) node;
+            int child = inner.getChild(key == null ? 0 : search(inner, version, key));
+            inner.lock.checkOrRestart(version);
+
+            node = get(child, inner, version);
+            long childVersion = node.lock.readLockOrRestart();
+            inner.lock.checkOrRestart(version);
+            version = childVersion;
+            isRoot = false;
+        }
+
+        return new Probe<>((BTreeLeafNode<TKey, TValue>) node, version, isRoot);
+    }
+
+    // node.search on a node read without its lock, which may see it half
+    // changed. that is only an error if the node did not change
+    private int search(BTreeNode<TKey> node, long version, TKey key) {
+        try {
+            return node.search(key);
+        } catch (RuntimeException e) {
+            node.lock.checkOrRestart(version);
+            throw e;
+        }
+    }
+
+    // a child read from parent without its lock, its page may have been freed
+    // since
+    private BTreeNode<TKey> get(int pageIndex, BTreeNode<TKey> parent, long version) {
+        try {
+            return cache.get(pageIndex);
+        } catch (RuntimeException e) {
+            parent.lock.checkOrRestart(version);
+            throw e;
+        }
+    }
+
+    // also collects the inner nodes on the way and the child taken at each,
+    // for splits and merges, which hold the structure lock
+    private BTreeLeafNode<TKey, TValue> findLeafNodeShouldContainKey(TKey key, List<BTreeInnerNode<TKey>> path,
+            List<Integer> slots) {
+        BTreeNode<TKey> node = cache.get(root);
         while (node.getNodeType() == TreeNodeType.InnerNode) {
-            node = ((BTreeInnerNode<TKey>) node).getChild(node.search(key));
+            int slot = node.search(key);
+            path.add((BTreeInnerNode<TKey>) node);
+            slots.add(slot);
+            node = cache.get(((BTreeInnerNode<TKey>) node).getChild(slot));
         }
 
         return (BTreeLeafNode<TKey, TValue>) node;
     }
 
+    /**
+     * Write every node changed since the last call back to the page store,
+     * returns whether there was one. Writers wait meanwhile, readers do not.
+     */
+    public boolean writeDirtyNodes() {
+        changes.writeLock().lock();
+        try {
+            return cache.writeDirtyNodes();
+        } finally {
+            changes.writeLock().unlock();
+        }
+    }
+
+    public int getDirtyNodeCount() {
+        return cache.getDirtyNodeCount();
+    }
+
+    /**
+     * Give every node of the tree back to the page store, the tree cannot be
+     * used afterwards.
+     */
+    public void free() {
+        ArrayList<Integer> pageIndices = new ArrayList<>();
+        pageIndices.add(root);
+        for (int i = 0; i < pageIndices.size(); i++) {
+            BTreeNode<TKey> node = cache.get(pageIndices.get(i));
+            if (node.getNodeType() == TreeNodeType.InnerNode) {
+                BTreeInnerNode<TKey> inner = (BTreeInnerNode<TKey>) node;
+                for (int j = 0; j <= inner.getKeyCount(); j++)
+                    pageIndices.add(inner.getChild(j));
+            }
+            cache.free(node);
+        }
+    }
+
     public void print() {
         ArrayList<BTreeNode> upper = new ArrayList<>();
         ArrayList<BTreeNode> lower = new ArrayList<>();
 
-        upper.add(root);
+        upper.add(cache.get(root));
         while (!upper.isEmpty()) {
             BTreeNode cur = upper.get(0);
             if (cur instanceof BTreeInnerNode) {
-                ArrayList<BTreeNode> children = ((BTreeInnerNode) cur).getChildren();
-                for (int i = 0; i < children.size(); i++) {
-                    BTreeNode child = children.get(i);
-                    if (child != null)
-                        lower.add(child);
-                }
+                BTreeInnerNode inner = (BTreeInnerNode) cur;
+                for (int i = 0; i <= inner.getKeyCount(); i++)
+                    lower.add(cache.get(inner.getChild(i)));
             }
             System.out.println(cur.toString() + " ");
             upper.remove(0);
@@ -143,13 +679,6 @@ public class BTree<TKey extends Comparable<TKey>, TValue> implements Serializabl
                 lower = new ArrayList<>();
             }
         }
+        cache.trim();
     }
-
-    public BTreeLeafNode getSmallest() {
-        return this.root.getSmallest();
-    }
-
-    public String commit() {
-        return this.root.commit();
-    }
-}
\ No newline at end of file
+}
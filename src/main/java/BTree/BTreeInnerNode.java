@@ -1,43 +1,27 @@
 package BTree;
 
-import java.io.Serializable;
-import java.util.ArrayList;
-
 /**
  * @author mohamed
  */
-class BTreeInnerNode<TKey extends Comparable<TKey>> extends BTreeNode<TKey> implements Serializable  {
-	protected final static int INNERORDER = 4;
+class BTreeInnerNode<TKey extends Comparable<TKey>> extends BTreeNode<TKey> {
 	/**
+	 * Page indices of the children.
 	 * @uml.property name="children"
 	 */
-	protected Object[] children;
+	protected int[] children;
 
-	public BTreeInnerNode() {
-		this.keys = new Object[INNERORDER + 1];
-		this.children = new Object[INNERORDER + 2];
+	public BTreeInnerNode(int pageIndex, int order) {
+		super(pageIndex);
+		this.keys = new Object[order + 1];
+		this.children = new int[order + 2];
 	}
 
-	@SuppressWarnings("unchecked")
-	public BTreeNode<TKey> getChild(int index) {
-		return (BTreeNode<TKey>) this.children[index];
+	public int getChild(int index) {
+		return this.children[index];
 	}
 
-	public ArrayList<BTreeNode> getChildren() {
-		ArrayList<BTreeNode> nodes = new ArrayList<>();
-		for (int i = 0; i < children.length; i++) {
-			if (children[i] == null)
-				break;
-			else if (children[i] instanceof BTreeNode)
-				nodes.add((BTreeNode<TKey>) children[i]);
-		}
-		return nodes;
-	}
-
-	public void setChild(int index, BTreeNode<TKey> child) {
+	public void setChild(int index, int child) {
 		this.children[index] = child;
-		if (child != null)
-			child.setParent(this);
 	}
 
 	@Override
@@ -56,22 +40,13 @@ class BTreeInnerNode<TKey extends Comparable<TKey>> extends BTreeNode<TKey> impl
 
 	@Override
 	public int search(TKey key) {
-		int index = 0;
-		for (index = 0; index < this.getKeyCount(); ++index) {
-			int cmp = this.getKey(index).compareTo(key);
-			if (cmp == 0) {
-				return index + 1;
-			} else if (cmp > 0) {
-				return index;
-			}
-		}
-
-		return index;
+		// keys equal to a separator are in the child right of it
+		return this.upperBound(key);
 	}
 
 	/* The codes below are used to support insertion operation */
 
-	private void insertAt(int index, TKey key, BTreeNode<TKey> leftChild, BTreeNode<TKey> rightChild) {
+	private void insertAt(int index, TKey key, int leftChild, int rightChild) {
 		// move space for the new key
 		for (int i = this.getKeyCount() + 1; i > index; --i) {
 			this.setChild(i, this.getChild(i - 1));
@@ -92,18 +67,17 @@ class BTreeInnerNode<TKey extends Comparable<TKey>> extends BTreeNode<TKey> impl
 	 * to parent node.
 	 */
 	@Override
-	protected BTreeNode<TKey> split() {
+	protected BTreeNode<TKey> split(int pageIndex) {
 		int midIndex = this.getKeyCount() / 2;
 
-		BTreeInnerNode<TKey> newRNode = new BTreeInnerNode<TKey>();
+		BTreeInnerNode<TKey> newRNode = new BTreeInnerNode<TKey>(pageIndex, this.getOrder());
 		for (int i = midIndex + 1; i < this.getKeyCount(); ++i) {
 			newRNode.setKey(i - midIndex - 1, this.getKey(i));
 			this.setKey(i, null);
 		}
 		for (int i = midIndex + 1; i <= this.getKeyCount(); ++i) {
 			newRNode.setChild(i - midIndex - 1, this.getChild(i));
-			newRNode.getChild(i - midIndex - 1).setParent(newRNode);
-			this.setChild(i, null);
+			this.setChild(i, 0);
 		}
 		this.setKey(midIndex, null);
 		newRNode.keyCount = this.getKeyCount() - midIndex - 1;
@@ -112,84 +86,34 @@ class BTreeInnerNode<TKey extends Comparable<TKey>> extends BTreeNode<TKey> impl
 		return newRNode;
 	}
 
-	@Override
-	protected BTreeNode<TKey> pushUpKey(TKey key, BTreeNode<TKey> leftChild, BTreeNode<TKey> rightNode) {
+	/**
+	 * Inserts the key pushed up by a split of one of the children, rightNode
+	 * being the new node that split off it.
+	 */
+	public void pushUpKey(TKey key, int rightNode) {
 		// find the target position of the new key
 		int index = this.search(key);
 
 		// insert the new key
-		this.insertAt(index, key, leftChild, rightNode);
-
-		// check whether current node need to be split
-		if (this.isOverflow()) {
-			return this.dealOverflow();
-		} else {
-			return this.getParent() == null ? this : null;
-		}
+		this.insertAt(index, key, this.getChild(index), rightNode);
 	}
 
 	/* The codes below are used to support delete operation */
 
-	private void deleteAt(int index) {
+	/**
+	 * Removes the key at index and the child right of it.
+	 */
+	public void deleteAt(int index) {
 		int i = 0;
 		for (i = index; i < this.getKeyCount() - 1; ++i) {
 			this.setKey(i, this.getKey(i + 1));
 			this.setChild(i + 1, this.getChild(i + 2));
 		}
 		this.setKey(i, null);
-		this.setChild(i + 1, null);
+		this.setChild(i + 1, 0);
 		--this.keyCount;
 	}
 
-	@Override
-	protected void processChildrenTransfer(BTreeNode<TKey> borrower, BTreeNode<TKey> lender, int borrowIndex) {
-		int borrowerChildIndex = 0;
-		while (borrowerChildIndex < this.getKeyCount() + 1 && this.getChild(borrowerChildIndex) != borrower)
-			++borrowerChildIndex;
-
-		if (borrowIndex == 0) {
-			// borrow a key from right sibling
-			TKey upKey = borrower.transferFromSibling(this.getKey(borrowerChildIndex), lender, borrowIndex);
-			this.setKey(borrowerChildIndex, upKey);
-		} else {
-			// borrow a key from left sibling
-			TKey upKey = borrower.transferFromSibling(this.getKey(borrowerChildIndex - 1), lender, borrowIndex);
-			this.setKey(borrowerChildIndex - 1, upKey);
-		}
-	}
-
-	@Override
-	protected BTreeNode<TKey> processChildrenFusion(BTreeNode<TKey> leftChild, BTreeNode<TKey> rightChild) {
-		int index = 0;
-		while (index < this.getKeyCount() && this.getChild(index) != leftChild)
-			++index;
-		TKey sinkKey = this.getKey(index);
-
-		// merge two children and the sink key into the left child node
-		leftChild.fusionWithSibling(sinkKey, rightChild);
-
-		// remove the sink key, keep the left child and abandon the right child
-		this.deleteAt(index);
-
-		// check whether need to propagate borrow or fusion to parent
-		if (this.isUnderflow()) {
-			if (this.getParent() == null) {
-				// current node is root, only remove keys or delete the whole
-				// root node
-				if (this.getKeyCount() == 0) {
-					leftChild.setParent(null);
-					return leftChild;
-				} else {
-					return null;
-				}
-			}
-
-			return this.dealUnderflow();
-		}
-
-		return null;
-	}
-
 	@Override
 	protected void fusionWithSibling(TKey sinkKey, BTreeNode<TKey> rightSibling) {
 		BTreeInnerNode<TKey> rightSiblingNode = (BTreeInnerNode<TKey>) rightSibling;
@@ -204,10 +128,6 @@ class BTreeInnerNode<TKey extends Comparable<TKey>> extends BTreeNode<TKey> impl
 			this.setChild(j + i, rightSiblingNode.getChild(i));
 		}
 		this.keyCount += 1 + rightSiblingNode.getKeyCount();
-
-		this.setRightSibling(rightSiblingNode.rightSibling);
-		if (rightSiblingNode.rightSibling != null)
-			rightSiblingNode.rightSibling.setLeftSibling(this);
 	}
 
 	@Override
@@ -223,6 +143,9 @@ class BTreeInnerNode<TKey extends Comparable<TKey>> extends BTreeNode<TKey> impl
 			this.keyCount += 1;
 
 			upKey = siblingNode.getKey(0);
+			// deleteAt drops the child right of the key, here it is the first
+			// child that moved
+			siblingNode.setChild(0, siblingNode.getChild(1));
 			siblingNode.deleteAt(borrowIndex);
 		} else {
 			// borrow the last key from left sibling, insert it to head
@@ -233,18 +156,4 @@ class BTreeInnerNode<TKey extends Comparable<TKey>> extends BTreeNode<TKey> impl
 
 		return upKey;
 	}
-
-	@Override
-	public String commit() {
-		String result = null;
-		for (int i = 0; i < children.length; i++) {
-			result += ((BTreeNode<TKey>) children[0]).commit() + "\r\n";
-		}
-		return result;
-	}
-
-	@Override
-	public BTreeLeafNode getSmallest() {
-		return this.getChild(0).getSmallest();
-	}
 }
\ No newline at end of file
@@ -1,32 +1,30 @@
 package BTree;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
  * @author mohamed
  */
-class BTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BTreeNode<TKey> implements Serializable  {
-	protected final static int LEAFORDER = 4;
+class BTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BTreeNode<TKey> {
 	/**
 	 * @uml.property name="values"
 	 */
 	private final Object[] values;
+	/**
+	 * Page index of the right sibling, 0 for the last leaf.
+	 */
+	private int next;
 	/**
 	 * @uml.property name="filters"
 	 * @uml.associationEnd multiplicity="(0 -1)" elementType="java.lang.Boolean"
 	 */
 	private ArrayList<Boolean> filters;
 
-	public BTreeLeafNode() {
+	public BTreeLeafNode(int pageIndex, int order) {
+		super(pageIndex);
 		this.filters = new ArrayList<>();
-		this.keys = new Object[LEAFORDER + 1];
-		this.values = new Object[LEAFORDER + 1];
-	}
-
-	public BTreeLeafNode(BTreeLeafNode smallest) {
-		this.keys = smallest.keys;
-		this.values = smallest.values;
+		this.keys = new Object[order + 1];
+		this.values = new Object[order + 1];
 	}
 
 	@SuppressWarnings("unchecked")
@@ -38,6 +36,14 @@ class BTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BTreeNode<TKe
 		this.values[index] = value;
 	}
 
+	public int getNext() {
+		return this.next;
+	}
+
+	public void setNext(int next) {
+		this.next = next;
+	}
+
 	@Override
 	public TreeNodeType getNodeType() {
 		return TreeNodeType.LeafNode;
@@ -45,14 +51,9 @@ class BTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BTreeNode<TKe
 
 	@Override
 	public int search(TKey key) {
-		for (int i = 0; i < this.getKeyCount(); ++i) {
-			int cmp = this.getKey(i).compareTo(key);
-			if (cmp == 0) {
-				return i;
-			} else if (cmp > 0) {
-				return -1;
-			}
-		}
+		int index = this.lowerBound(key);
+		if (index < this.getKeyCount() && this.getKey(index).compareTo(key) == 0)
+			return index;
 
 		return -1;
 	}
@@ -78,10 +79,7 @@ class BTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BTreeNode<TKe
 	/* The codes below are used to support insertion operation */
 
 	public void insertKey(TKey key, TValue value) {
-		int index = 0;
-		while (index < this.getKeyCount() && this.getKey(index).compareTo(key) < 0)
-			++index;
-		this.insertAt(index, key, value);
+		this.insertAt(this.lowerBound(key), key, value);
 	}
 
 	private void insertAt(int index, TKey key, TValue value) {
@@ -102,10 +100,10 @@ class BTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BTreeNode<TKe
 	 * to parent node.
 	 */
 	@Override
-	protected BTreeNode<TKey> split() {
+	protected BTreeNode<TKey> split(int pageIndex) {
 		int midIndex = this.getKeyCount() / 2;
 
-		BTreeLeafNode<TKey, TValue> newRNode = new BTreeLeafNode<TKey, TValue>();
+		BTreeLeafNode<TKey, TValue> newRNode = new BTreeLeafNode<TKey, TValue>(pageIndex, this.getOrder());
 		for (int i = midIndex; i < this.getKeyCount(); ++i) {
 			newRNode.setKey(i - midIndex, this.getKey(i));
 			newRNode.setValue(i - midIndex, this.getValue(i));
@@ -115,12 +113,11 @@ class BTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BTreeNode<TKe
 		newRNode.keyCount = this.getKeyCount() - midIndex;
 		this.keyCount = midIndex;
 
-		return newRNode;
-	}
+		// maintain the chain of leaves
+		newRNode.next = this.next;
+		this.next = pageIndex;
 
-	@Override
-	protected BTreeNode<TKey> pushUpKey(TKey key, BTreeNode<TKey> leftChild, BTreeNode<TKey> rightNode) {
-		throw new UnsupportedOperationException();
+		return newRNode;
 	}
 
 	/* The codes below are used to support deletion operation */
@@ -145,16 +142,6 @@ class BTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BTreeNode<TKe
 		--this.keyCount;
 	}
 
-	@Override
-	protected void processChildrenTransfer(BTreeNode<TKey> borrower, BTreeNode<TKey> lender, int borrowIndex) {
-		throw new UnsupportedOperationException();
-	}
-
-	@Override
-	protected BTreeNode<TKey> processChildrenFusion(BTreeNode<TKey> leftChild, BTreeNode<TKey> rightChild) {
-		throw new UnsupportedOperationException();
-	}
-
 	/**
 	 * Notice that the key sunk from parent is be abandoned.
 	 */
@@ -170,9 +157,7 @@ class BTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BTreeNode<TKe
 		}
 		this.keyCount += siblingLeaf.getKeyCount();
 
-		this.setRightSibling(siblingLeaf.rightSibling);
-		if (siblingLeaf.rightSibling != null)
-			siblingLeaf.rightSibling.setLeftSibling(this);
+		this.next = siblingLeaf.next;
 	}
 
 	@Override
@@ -186,23 +171,6 @@ class BTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BTreeNode<TKe
 		return borrowIndex == 0 ? sibling.getKey(0) : this.getKey(0);
 	}
 
-	@Override
-	public String commit() {
-		String result = "";
-		for (int i = 0; i < values.length; i++) {
-			if (values[i] == null) {
-				break;
-			}
-			result += values[i].toString() + "\r\n";
-		}
-		return result;
-	}
-
-	@Override
-	public BTreeLeafNode getSmallest() {
-		return this;
-	}
-
 	// @Override
 	// public String project(SelectColumns columns) {
 	// String out = "";
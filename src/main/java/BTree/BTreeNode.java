@@ -1,15 +1,13 @@
 package BTree;
 
-import java.io.Serializable;
-
-enum TreeNodeType {
-	InnerNode, LeafNode
-}
-
 /**
  * @author mohamed
  */
-abstract class BTreeNode<TKey extends Comparable<TKey>> implements Serializable  {
+abstract class BTreeNode<TKey extends Comparable<TKey>> {
+	/**
+	 * Page of the node in the page store of its tree.
+	 */
+	protected final int pageIndex;
 	/**
 	 * @uml.property name="keys"
 	 */
@@ -19,28 +17,21 @@ abstract class BTreeNode<TKey extends Comparable<TKey>> implements Serializable
 	 */
 	protected int keyCount;
 	/**
-	 * @uml.property name="parentNode"
-	 * @uml.associationEnd inverse=
-	 *                     "leftSibling:data_structures.BPlusTree.BTreeNode"
+	 * Version lock readers check and writers take, see OptimisticLock.
 	 */
-	protected BTreeNode<TKey> parentNode;
+	final OptimisticLock lock = new OptimisticLock();
 	/**
-	 * @uml.property name="leftSibling"
-	 * @uml.associationEnd inverse=
-	 *                     "parentNode:data_structures.BPlusTree.BTreeNode"
+	 * Set on every cache hit, cleared by the clock hand of NodeCache.trim.
 	 */
-	protected BTreeNode<TKey> leftSibling;
-	/**
-	 * @uml.property name="rightSibling"
-	 * @uml.associationEnd
-	 */
-	protected BTreeNode<TKey> rightSibling;
+	volatile boolean referenced;
 
-	protected BTreeNode() {
+	protected BTreeNode(int pageIndex) {
+		this.pageIndex = pageIndex;
 		this.keyCount = 0;
-		this.parentNode = null;
-		this.leftSibling = null;
-		this.rightSibling = null;
+	}
+
+	public int getPageIndex() {
+		return this.pageIndex;
 	}
 
 	/**
@@ -60,14 +51,6 @@ abstract class BTreeNode<TKey extends Comparable<TKey>> implements Serializable
 		this.keys[index] = key;
 	}
 
-	public BTreeNode<TKey> getParent() {
-		return this.parentNode;
-	}
-
-	public void setParent(BTreeNode<TKey> parent) {
-		this.parentNode = parent;
-	}
-
 	/**
 	 * @uml.property name="nodeType"
 	 * @uml.associationEnd readOnly="true"
@@ -81,37 +64,61 @@ abstract class BTreeNode<TKey extends Comparable<TKey>> implements Serializable
 	 */
 	public abstract int search(TKey key);
 
-	/* The codes below are used to support insertion operation */
-
-	public boolean isOverflow() {
-		return this.getKeyCount() == this.keys.length;
+	/**
+	 * Binary search for the first of the keys that is not smaller than key,
+	 * keyCount if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	protected int lowerBound(TKey key) {
+		int low = 0;
+		int high = this.keyCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (((TKey) this.keys[mid]).compareTo(key) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
 	}
 
-	public BTreeNode<TKey> dealOverflow() {
-		int midIndex = this.getKeyCount() / 2;
-		TKey upKey = this.getKey(midIndex);
-
-		BTreeNode<TKey> newRNode = this.split();
-
-		if (this.getParent() == null) {
-			this.setParent(new BTreeInnerNode<TKey>());
+	/**
+	 * Binary search for the first of the keys that is greater than key,
+	 * keyCount if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	protected int upperBound(TKey key) {
+		int low = 0;
+		int high = this.keyCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (((TKey) this.keys[mid]).compareTo(key) <= 0)
+				low = mid + 1;
+			else
+				high = mid;
 		}
-		newRNode.setParent(this.getParent());
-
-		// maintain links of sibling nodes
-		newRNode.setLeftSibling(this);
-		newRNode.setRightSibling(this.rightSibling);
-		if (this.getRightSibling() != null)
-			this.getRightSibling().setLeftSibling(newRNode);
-		this.setRightSibling(newRNode);
+		return low;
+	}
 
-		// push up a key to parent internal node
-		return this.getParent().pushUpKey(upKey, this, newRNode);
+	/**
+	 * The most keys the node takes before it splits, the order of its tree.
+	 */
+	public int getOrder() {
+		return this.keys.length - 1;
 	}
 
-	protected abstract BTreeNode<TKey> split();
+	/* The codes below are used to support insertion operation */
 
-	protected abstract BTreeNode<TKey> pushUpKey(TKey key, BTreeNode<TKey> leftChild, BTreeNode<TKey> rightNode);
+	public boolean isOverflow() {
+		return this.getKeyCount() == this.keys.length;
+	}
+
+	/**
+	 * Moves the upper half of the node into a new node stored at pageIndex,
+	 * which becomes its right sibling. The key at the middle is the one the
+	 * parent gets for the new node.
+	 */
+	protected abstract BTreeNode<TKey> split(int pageIndex);
 
 	/* The codes below are used to support deletion operation */
 
@@ -123,72 +130,7 @@ abstract class BTreeNode<TKey extends Comparable<TKey>> implements Serializable
 		return this.getKeyCount() > (this.keys.length / 2);
 	}
 
-	public BTreeNode<TKey> getLeftSibling() {
-		if (this.leftSibling != null && this.leftSibling.getParent() == this.getParent())
-			return this.leftSibling;
-		return null;
-	}
-
-	public void setLeftSibling(BTreeNode<TKey> sibling) {
-		this.leftSibling = sibling;
-	}
-
-	public BTreeNode<TKey> getRightSibling() {
-		if (this.rightSibling != null && this.rightSibling.getParent() == this.getParent())
-			return this.rightSibling;
-		return null;
-	}
-
-	public BTreeNode<TKey> getNextNode() {
-		return this.rightSibling;
-	}
-
-	public void setRightSibling(BTreeNode<TKey> silbling) {
-		this.rightSibling = silbling;
-	}
-
-	public BTreeNode<TKey> dealUnderflow() {
-		if (this.getParent() == null)
-			return null;
-
-		// try to borrow a key from sibling
-		BTreeNode<TKey> leftSibling = this.getLeftSibling();
-		if (leftSibling != null && leftSibling.canLendAKey()) {
-			this.getParent().processChildrenTransfer(this, leftSibling, leftSibling.getKeyCount() - 1);
-			return null;
-		}
-
-		BTreeNode<TKey> rightSibling = this.getRightSibling();
-		if (rightSibling != null && rightSibling.canLendAKey()) {
-			this.getParent().processChildrenTransfer(this, rightSibling, 0);
-			return null;
-		}
-
-		// Can not borrow a key from any sibling, then do fusion with sibling
-		if (leftSibling != null) {
-			return this.getParent().processChildrenFusion(leftSibling, this);
-		} else {
-			return this.getParent().processChildrenFusion(this, rightSibling);
-		}
-	}
-
-	protected abstract void processChildrenTransfer(BTreeNode<TKey> borrower, BTreeNode<TKey> lender, int borrowIndex);
-
-	protected abstract BTreeNode<TKey> processChildrenFusion(BTreeNode<TKey> leftChild, BTreeNode<TKey> rightChild);
-
 	protected abstract void fusionWithSibling(TKey sinkKey, BTreeNode<TKey> rightSibling);
 
 	protected abstract TKey transferFromSibling(TKey sinkKey, BTreeNode<TKey> sibling, int borrowIndex);
-
-	public abstract String commit();
-
-	/**
-	 * @uml.property name="smallest"
-	 * @uml.associationEnd readOnly="true"
-	 */
-	public abstract BTreeLeafNode getSmallest();
-
-	// public abstract String project(SelectColumns columns);
-
-	// public abstract void filter(ArrayList<DBCond> conditions);
-}
\ No newline at end of file
+}
@@ -1,84 +1,278 @@
 package BTree;
 
-import java.io.Serializable;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
 
+// The index file of a tree only holds its header, the nodes are pages of the
+// page store it was opened with:
+//   int magic   0x42504C55 ("BPLU")
+//   int root    page index of the root node
+//   int format  what the values are, up to the owner of the index. headers
+//               written before it was kept are 8 bytes long and read as 0
+// Index files written before the nodes were paged were java serialization of
+// the whole tree and start with 0xACED instead.
+//
+// Searches and changes may run on many threads at once, BTree takes care of
+// it with optimistic lock coupling and PostingList is synchronized.
 @SuppressWarnings({ "unchecked", "rawtypes" })
-public class BTreePlus implements Serializable {
-	private BTree tree;
+public class BTreePlus {
+	private static final int MAGIC = 0x42504C55;
 
-	public BTreePlus() {
-		tree = new BTree();
+	// share of a node's capacity filled when an index is built by build
+	public static double fillFactor = 0.8;
+	// keys per node of indexes created without an order
+	public static int order = 256;
+	// clean nodes every index keeps decoded in memory
+	public static int maxNodeCount = 256;
+
+	private final BTree tree;
+	private int valueFormat;
+
+	private BTreePlus(BTree tree) {
+		this.tree = tree;
 	}
 
-	public void insert(Object key, Object value) {
-		Comparable obj = (Comparable) key;
-		Vector<Object> v = (Vector<Object>) tree.search(obj);
+	public BTreePlus(PageStore store) {
+		this(order, store);
+	}
 
-		if (v == null) {
-			v = new Vector<Object>();
-			tree.insert(obj, v);
-		}
+	// order is the number of keys a node holds before it splits, an even
+	// number of at least 4
+	public BTreePlus(int order, PageStore store) {
+		tree = new BTree(order, store);
+	}
 
-		v.add(value);
+	// an index over keys sorted in ascending order, without duplicates, each
+	// with the posting list of values stored under it, built bottom-up
+	public static BTreePlus build(List<Comparable> keys, List<PostingList> values, int order, PageStore store) {
+		return new BTreePlus(BTree.build(keys, values, order, fillFactor, store));
 	}
 
-	public void update(Object oldKey, Object newKey, Object value) {
+	// the index whose header was written by getHeader
+	public static BTreePlus open(byte[] header, PageStore store) {
+		if (!isHeader(header))
+			throw new IllegalArgumentException("Not a B+ tree header");
+
+		BTreePlus index = new BTreePlus(new BTree(store, ByteBuffer.wrap(header).getInt(4)));
+		index.valueFormat = getValueFormat(header);
+		return index;
+	}
+
+	public static boolean isHeader(byte[] data) {
+		return data.length >= 8 && ByteBuffer.wrap(data).getInt() == MAGIC;
+	}
+
+	public static int getValueFormat(byte[] header) {
+		return header.length >= 12 ? ByteBuffer.wrap(header).getInt(8) : 0;
+	}
+
+	public synchronized byte[] getHeader() {
+		return ByteBuffer.allocate(12).putInt(MAGIC).putInt(tree.getRoot()).putInt(valueFormat).array();
+	}
+
+	public synchronized int getValueFormat() {
+		return valueFormat;
+	}
+
+	public synchronized void setValueFormat(int valueFormat) {
+		this.valueFormat = valueFormat;
+	}
+
+	// the posting list of a key is changed in place while its leaf is locked,
+	// readers only ever get copies of it
+	public void insert(Object key, Object value) {
+		tree.compute((Comparable) key, current -> {
+			PostingList postings = current == null ? new PostingList() : toPostings(current);
+			postings.add(value);
+			return postings;
+		});
+	}
 
-		Vector<Object> newVector = (Vector<Object>) tree.search((Comparable) newKey);
-		newVector.add(value);
+	// a posting list holds a value once, so a value updated to the key it is
+	// already under is left alone rather than inserted and then deleted
+	public void update(Object oldKey, Object newKey, Object value) {
+		if (((Comparable) oldKey).compareTo(newKey) == 0)
+			return;
 
+		insert(newKey, value);
 		delete(oldKey, value);
 	}
 
 	public void delete(Object key, Object value) {
-		Comparable obj = (Comparable) key;
-		Vector<Object> v = (Vector<Object>) tree.search(obj);
+		tree.compute((Comparable) key, current -> {
+			if (current == null)
+				return null;
 
-		v.remove(value);
-		if (v.isEmpty())
-			tree.delete(obj);
+			PostingList postings = toPostings(current);
+			postings.remove(value);
+			return postings.isEmpty() ? null : postings;
+		});
+	}
 
-		tree.print();
+	// a copy of the values stored under key, null if there are none
+	public PostingList search(Object key) {
+		PostingList postings = getPostings((Comparable) key);
+		return postings == null ? null : postings.copy();
 	}
 
-	public Vector<Object> search(Object key) {
-		return (Vector<Object>) tree.search((Comparable) key);
+	// the (key, posting list) pairs of the keys that compare to bound as
+	// operator says, in key order
+	public Vector<Pair<Object, Object>> searchOperator(Comparable bound, String operator) {
+		Cursor cursor = cursor(bound, operator);
+		if (cursor == null)
+			return null;
+
+		Vector<Pair<Object, Object>> result = new Vector<>();
+		try {
+			while (cursor.hasNext()) {
+				Pair<Object, PostingList> entry = cursor.next();
+				result.add(new Pair<>(entry.getFirst(), entry.getSecond()));
+			}
+		} finally {
+			cursor.close();
+		}
+		return result;
 	}
 
-	public Vector<Object> search(Object key, boolean getDuplicates) {
-		Vector<Object> result = (Vector<Object>) tree.search((Comparable) key);
+	// the union of the values of the keys that compare to bound as operator
+	// says
+	public PostingList searchPostings(Comparable bound, String operator) {
+		return union(entries(bound, operator));
+	}
 
-		if (getDuplicates)
-			return result;
+	// the union of the values of the keys from lower to upper, a null bound
+	// leaves that side open. the scan starts at lower and stops past upper
+	public PostingList searchPostings(Comparable lower, boolean lowerInclusive, Comparable upper,
+			boolean upperInclusive) {
+		return union(tree.cursor(lower, lowerInclusive, upper, upperInclusive));
+	}
 
-		return new Vector<>(new HashSet<>(result));
+	// the number of values of the keys from lower to upper, counted up to
+	// just past limit, so the estimate of a wide range stops early
+	public int count(Comparable lower, boolean lowerInclusive, Comparable upper, boolean upperInclusive,
+			int limit) {
+		BTree.Cursor entries = tree.cursor(lower, lowerInclusive, upper, upperInclusive);
+		int count = 0;
+		try {
+			while (count <= limit && entries.hasNext())
+				count += toPostings(entries.next().getSecond()).size();
+		} finally {
+			entries.close();
+		}
+		return count;
 	}
 
-	public Vector<Pair<Object, Object>> searchOperator(Comparable bound, String operator) {
+	private static PostingList union(BTree.Cursor entries) {
+		PostingList result = new PostingList();
+		try {
+			while (entries.hasNext())
+				result.addAll(toPostings(entries.next().getSecond()));
+		} finally {
+			entries.close();
+		}
+		return result;
+	}
+
+	// a cursor over the keys that compare to bound as operator says, in key
+	// order, null for an operator other than >, >=, < or <=. it holds one
+	// leaf at a time, so it is meant for ranges too wide to collect, and is
+	// to be closed when the caller is done, whether or not it got to the end
+	public Cursor cursor(Comparable bound, String operator) {
+		BTree.Cursor entries = entries(bound, operator);
+		return entries == null ? null : new Cursor(entries);
+	}
+
+	// a cursor over the keys from lower to upper, as searchPostings
+	public Cursor cursor(Comparable lower, boolean lowerInclusive, Comparable upper, boolean upperInclusive) {
+		return new Cursor(tree.cursor(lower, lowerInclusive, upper, upperInclusive));
+	}
+
+	private BTree.Cursor entries(Comparable bound, String operator) {
 		switch (operator) {
 			case ">":
-				return tree.searchStartingFrom(bound, false);
+				return tree.cursor(bound, false, null, false);
 			case ">=":
-				return tree.searchStartingFrom(bound, true);
+				return tree.cursor(bound, true, null, false);
 			case "<=":
-				return tree.searchTill(bound, true);
+				return tree.cursor(null, false, bound, true);
 			case "<":
-				return tree.searchTill(bound, false);
+				return tree.cursor(null, false, bound, false);
 		}
 		return null;
 	}
 
-	public Vector<Pair<Object, Object>> searchOperator(Comparable bound, String operator, boolean getDuplicates) {
-		Vector<Pair<Object, Object>> result = searchOperator(bound, operator);
-		if (getDuplicates)
-			return result;
+	// the entries of a tree cursor with copies of their posting lists
+	public static class Cursor implements Iterator<Pair<Object, PostingList>> {
+		private final BTree.Cursor entries;
+
+		private Cursor(BTree.Cursor entries) {
+			this.entries = entries;
+		}
+
+		// moves to the first key from key on
+		public void seek(Comparable key, boolean inclusive) {
+			entries.seek(key, inclusive);
+		}
+
+		public boolean hasNext() {
+			return entries.hasNext();
+		}
+
+		public Pair<Object, PostingList> next() {
+			Pair<Object, Object> entry = entries.next();
+			return new Pair<>(entry.getFirst(), toPostings(entry.getSecond()).copy());
+		}
+
+		public void close() {
+			entries.close();
+		}
+	}
+
+	private PostingList getPostings(Comparable key) {
+		Object value = tree.search(key);
+		return value == null ? null : toPostings(value);
+	}
+
+	// trees written before posting lists stored the values of a key as a
+	// vector, it is replaced the next time the key changes
+	private static PostingList toPostings(Object value) {
+		if (value instanceof Vector)
+			return new PostingList((Vector<Object>) value);
+		return (PostingList) value;
+	}
+
+	// writes the nodes changed since the last call to the page store, returns
+	// whether there was one
+	public boolean writeDirtyNodes() {
+		return tree.writeDirtyNodes();
+	}
+
+	public int getDirtyNodeCount() {
+		return tree.getDirtyNodeCount();
+	}
+
+	public int getOrder() {
+		return tree.getOrder();
+	}
 
-		return new Vector<>(new HashSet<>(result));
+	// gives the nodes back to the page store, the index cannot be used
+	// afterwards
+	public synchronized void free() {
+		tree.free();
 	}
 
-	public void print() {
+	public synchronized void print() {
 		tree.print();
 	}
-}
\ No newline at end of file
+
+	// node reads and writes of every index of the process
+	public static String getStatistics() {
+		return NodeCache.getStatistics();
+	}
+
+	public static void resetStatistics() {
+		NodeCache.resetStatistics();
+	}
+}
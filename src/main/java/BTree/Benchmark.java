@@ -0,0 +1,123 @@
+package BTree;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of one index shared by 1, 2, 4 ... up to a number of threads,
+ * each running a mix of point searches, range scans, inserts and deletes on
+ * random keys for a while. The pages are kept in memory and, unless a number
+ * of cached nodes is given, every node stays decoded, so it measures the tree
+ * and its locking rather than the disk.
+ *
+ *   java BTree.Benchmark [threads] [seconds per run] [keys] [percent writes] [cached nodes]
+ */
+@SuppressWarnings("rawtypes")
+public class Benchmark {
+    // pages in a map, enough for a tree that is only written at a checkpoint
+    private static class MemoryStore implements PageStore {
+        private final HashMap<Integer, byte[]> pages = new HashMap<>();
+        private int next = 1;
+
+        public synchronized int newPageIndex() {
+            return next++;
+        }
+
+        public synchronized ByteBuffer readPage(int pageIndex) {
+            byte[] data = pages.get(pageIndex);
+            if (data == null)
+                throw new IllegalStateException("No page " + pageIndex);
+            return ByteBuffer.wrap(data);
+        }
+
+        public synchronized void writePage(int pageIndex, byte[] data) {
+            pages.put(pageIndex, data);
+        }
+
+        public synchronized void freePage(int pageIndex) {
+            pages.remove(pageIndex);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        int keyCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+        int writePercent = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        BTreePlus.maxNodeCount = args.length > 4 ? Integer.parseInt(args[4]) : Integer.MAX_VALUE;
+
+        System.out.println("keys=" + keyCount + ", writes=" + writePercent + "%, order=" + BTreePlus.order
+                + ", cached nodes=" + (args.length > 4 ? args[4] : "all"));
+        for (int threads = 1;; threads = Math.min(2 * threads, maxThreads)) {
+            BTreePlus index = build(keyCount);
+            long operations = run(index, threads, (long) (seconds * 1e9), keyCount, writePercent);
+            System.out.printf("threads=%d ops/s=%.0f%n", threads, operations / seconds);
+            if (threads >= maxThreads)
+                break;
+        }
+    }
+
+    // every even key from 0, with its own number as value
+    private static BTreePlus build(int keyCount) {
+        List<Comparable> keys = new ArrayList<>(keyCount);
+        List<PostingList> values = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            PostingList postings = new PostingList();
+            postings.add(i);
+            keys.add(2 * i);
+            values.add(postings);
+        }
+        BTreePlus index = BTreePlus.build(keys, values, BTreePlus.order, new MemoryStore());
+        index.writeDirtyNodes();
+        return index;
+    }
+
+    // the number of operations threads got done in nanos
+    private static long run(BTreePlus index, int threads, long nanos, int keyCount, int writePercent)
+            throws InterruptedException {
+        AtomicInteger ready = new AtomicInteger();
+        long[] done = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int worker = i;
+            workers[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                ready.incrementAndGet();
+                while (ready.get() < threads)
+                    Thread.onSpinWait();
+
+                long end = System.nanoTime() + nanos;
+                long count = 0;
+                while ((count & 63) != 0 || System.nanoTime() < end) {
+                    int key = random.nextInt(2 * keyCount);
+                    int kind = random.nextInt(100);
+                    if (kind < writePercent) {
+                        // odd keys come and go, even ones stay
+                        if (random.nextBoolean())
+                            index.insert(key | 1, worker);
+                        else
+                            index.delete(key | 1, worker);
+                    } else if (kind < writePercent + 5) {
+                        index.searchOperator(2 * keyCount - 100, ">=");
+                    } else {
+                        index.search(key);
+                    }
+                    count++;
+                }
+                done[worker] = count;
+            });
+            workers[i].start();
+        }
+
+        long total = 0;
+        for (int i = 0; i < threads; i++) {
+            workers[i].join();
+            total += done[i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,146 @@
+package BTree;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decoded nodes of one tree, read from its page store on a miss. A node that
+ * an operation changed stays dirty until writeDirtyNodes copies it back; the
+ * table files only do that at a checkpoint, so the store keeps the nodes of
+ * the last one. Clean nodes are evicted once an operation is done with them,
+ * dirty ones never are.
+ *
+ * Lookups take no lock, so readers of the tree stay lock free. Eviction is a
+ * clock over the nodes: a node used since the hand last passed it gets a
+ * second chance. An evicted node is marked obsolete, so a reader or writer
+ * still holding it starts over and reads the page again.
+ */
+@SuppressWarnings("rawtypes")
+class NodeCache {
+    // adders, so that readers on many threads do not contend on the counts
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder writes = new LongAdder();
+
+    private final PageStore store;
+    private final ConcurrentHashMap<Integer, BTreeNode> nodes = new ConcurrentHashMap<>();
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    // held by splits and merges of the tree, nodes are not evicted meanwhile
+    private final ReentrantLock structureLock;
+    private Iterator<BTreeNode> hand;
+
+    NodeCache(PageStore store, ReentrantLock structureLock) {
+        this.store = store;
+        this.structureLock = structureLock;
+    }
+
+    BTreeNode get(int pageIndex) {
+        BTreeNode node = nodes.get(pageIndex);
+        if (node != null) {
+            if (!node.referenced)
+                node.referenced = true;
+            hits.increment();
+            return node;
+        }
+
+        // read while the page has no node, so a copy written back and evicted
+        // meanwhile cannot be replaced by an older one
+        return nodes.computeIfAbsent(pageIndex, index -> {
+            misses.increment();
+            BTreeNode read = NodeFormat.decode(index, store.readPage(index));
+            read.referenced = true;
+            return read;
+        });
+    }
+
+    int newPageIndex() {
+        return store.newPageIndex();
+    }
+
+    // registers a node that is not in the store yet
+    void add(BTreeNode node) {
+        nodes.put(node.getPageIndex(), node);
+        dirty.add(node.getPageIndex());
+    }
+
+    void changed(BTreeNode node) {
+        dirty.add(node.getPageIndex());
+    }
+
+    void free(BTreeNode node) {
+        node.lock.markObsolete();
+        nodes.remove(node.getPageIndex(), node);
+        dirty.remove(node.getPageIndex());
+        store.freePage(node.getPageIndex());
+    }
+
+    // evicts clean nodes until at most maxNodeCount are left. skipped while
+    // a split or merge runs, it would find its nodes gone
+    void trim() {
+        if (nodes.size() <= BTreePlus.maxNodeCount || !structureLock.tryLock())
+            return;
+
+        try {
+            // one round of the hand at most, so that a node just read survives
+            // the next trim and a scan going from leaf to leaf gets ahead
+            for (int steps = nodes.size(); nodes.size() > BTreePlus.maxNodeCount && steps > 0; steps--) {
+                if (hand == null || !hand.hasNext())
+                    hand = nodes.values().iterator();
+                if (!hand.hasNext())
+                    break;
+
+                BTreeNode node = hand.next();
+                if (node.referenced) {
+                    node.referenced = false;
+                    continue;
+                }
+                if (dirty.contains(node.getPageIndex()) || !node.lock.tryWriteLock())
+                    continue;
+
+                // a writer marks its node dirty before it unlocks it
+                if (!dirty.contains(node.getPageIndex())) {
+                    nodes.remove(node.getPageIndex(), node);
+                    node.lock.markObsolete();
+                }
+                node.lock.writeUnlock();
+            }
+        } finally {
+            structureLock.unlock();
+        }
+    }
+
+    // returns whether there was a dirty node. the tree keeps writers out
+    // while it runs
+    boolean writeDirtyNodes() {
+        if (dirty.isEmpty())
+            return false;
+
+        for (int pageIndex : dirty)
+            store.writePage(pageIndex, NodeFormat.encode(nodes.get(pageIndex)));
+        writes.add(dirty.size());
+        dirty.clear();
+        trim();
+        return true;
+    }
+
+    int getNodeCount() {
+        return nodes.size();
+    }
+
+    int getDirtyNodeCount() {
+        return dirty.size();
+    }
+
+    static void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        writes.reset();
+    }
+
+    static String getStatistics() {
+        return "hits=" + hits.sum() + ", reads=" + misses.sum() + ", writes=" + writes.sum();
+    }
+}
@@ -0,0 +1,151 @@
+package BTree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Vector;
+
+// Binary layout of a B+ tree node page.
+//
+// header (12 bytes)
+//   short magic          0x4E44 ("ND")
+//   byte  version
+//   byte  kind           LEAF or INNER
+//   int   order
+//   int   keyCount
+// leaf
+//   int   next           page index of the next leaf, 0 for the last one
+//   (key, value)[keyCount]
+// inner
+//   key[keyCount]
+//   int   child[keyCount + 1]
+//
+// keys and values are tagged: Integer -> 4 bytes, Double -> 8 bytes, String ->
+// int length and UTF-8 bytes, Vector -> int size and its tagged elements,
+// PostingList -> its containers as written by PostingList.write
+class NodeFormat {
+    static final short MAGIC = 0x4E44;
+    static final byte VERSION = 1;
+
+    static final byte LEAF = 0;
+    static final byte INNER = 1;
+
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_VECTOR = 4;
+    private static final byte TYPE_POSTINGS = 5;
+
+    static byte[] encode(BTreeNode<?> node) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeShort(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(node.getNodeType() == TreeNodeType.LeafNode ? LEAF : INNER);
+            out.writeInt(node.getOrder());
+            out.writeInt(node.getKeyCount());
+
+            if (node.getNodeType() == TreeNodeType.LeafNode) {
+                BTreeLeafNode<?, ?> leaf = (BTreeLeafNode<?, ?>) node;
+                out.writeInt(leaf.getNext());
+                for (int i = 0; i < leaf.getKeyCount(); i++) {
+                    writeValue(out, leaf.getKey(i));
+                    writeValue(out, leaf.getValue(i));
+                }
+            } else {
+                BTreeInnerNode<?> inner = (BTreeInnerNode<?>) node;
+                for (int i = 0; i < inner.getKeyCount(); i++)
+                    writeValue(out, inner.getKey(i));
+                for (int i = 0; i <= inner.getKeyCount(); i++)
+                    out.writeInt(inner.getChild(i));
+            }
+
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode node " + node.getPageIndex());
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static BTreeNode decode(int pageIndex, ByteBuffer buffer) {
+        if (buffer.getShort() != MAGIC)
+            throw new IllegalStateException("Page " + pageIndex + " is not a B+ tree node");
+        buffer.get(); // version
+        byte kind = buffer.get();
+        int order = buffer.getInt();
+        int keyCount = buffer.getInt();
+
+        if (kind == LEAF) {
+            BTreeLeafNode leaf = new BTreeLeafNode(pageIndex, order);
+            leaf.setNext(buffer.getInt());
+            for (int i = 0; i < keyCount; i++) {
+                leaf.setKey(i, (Comparable) readValue(buffer));
+                leaf.setValue(i, readValue(buffer));
+            }
+            leaf.keyCount = keyCount;
+            return leaf;
+        }
+
+        BTreeInnerNode inner = new BTreeInnerNode(pageIndex, order);
+        for (int i = 0; i < keyCount; i++)
+            inner.setKey(i, (Comparable) readValue(buffer));
+        for (int i = 0; i <= keyCount; i++)
+            inner.setChild(i, buffer.getInt());
+        inner.keyCount = keyCount;
+        return inner;
+    }
+
+    static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(TYPE_STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Vector) {
+            Vector<?> vector = (Vector<?>) value;
+            out.writeByte(TYPE_VECTOR);
+            out.writeInt(vector.size());
+            for (Object element : vector)
+                writeValue(out, element);
+        } else if (value instanceof PostingList) {
+            out.writeByte(TYPE_POSTINGS);
+            ((PostingList) value).write(out);
+        } else {
+            throw new IllegalArgumentException("Cannot store " + value + " in a B+ tree node");
+        }
+    }
+
+    static Object readValue(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case TYPE_INTEGER:
+                return buffer.getInt();
+            case TYPE_DOUBLE:
+                return buffer.getDouble();
+            case TYPE_STRING:
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            case TYPE_VECTOR:
+                int size = buffer.getInt();
+                Vector<Object> vector = new Vector<>(size);
+                for (int i = 0; i < size; i++)
+                    vector.add(readValue(buffer));
+                return vector;
+            case TYPE_POSTINGS:
+                return PostingList.read(buffer);
+        }
+        throw new IllegalStateException("Unknown value type " + type);
+    }
+}
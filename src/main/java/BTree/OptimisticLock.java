@@ -0,0 +1,82 @@
+package BTree;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version lock of a node, for optimistic lock coupling. Readers take no lock:
+ * they note the version, read the node and check that the version did not
+ * change, starting the operation over if it did. Writers set the lock bit
+ * with a compare-and-set, and unlocking moves the version on.
+ *
+ *   bit 0      obsolete, the node was freed or evicted from its cache
+ *   bit 1      locked
+ *   bits 2-63  version
+ */
+final class OptimisticLock {
+    private static final long OBSOLETE = 1;
+    private static final long LOCKED = 2;
+
+    /**
+     * Thrown when a node changed under an optimistic read, the operation
+     * starts over from the root. Shared and without a stack trace, as it is
+     * a control transfer rather than an error.
+     */
+    static final class Restart extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Restart() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final Restart RESTART = new Restart();
+
+    private final AtomicLong word = new AtomicLong();
+
+    // waits out a writer and returns the version to check the read against
+    long readLockOrRestart() {
+        long version = word.get();
+        while ((version & LOCKED) != 0) {
+            Thread.onSpinWait();
+            version = word.get();
+        }
+        if ((version & OBSOLETE) != 0)
+            throw RESTART;
+        return version;
+    }
+
+    void checkOrRestart(long version) {
+        if (word.get() != version)
+            throw RESTART;
+    }
+
+    // locks the node if it did not change since version was read
+    void upgradeToWriteLockOrRestart(long version) {
+        if (!word.compareAndSet(version, version + LOCKED))
+            throw RESTART;
+    }
+
+    // waits until the node is unlocked and locks it
+    void writeLockOrRestart() {
+        while (true) {
+            long version = readLockOrRestart();
+            if (word.compareAndSet(version, version + LOCKED))
+                return;
+            Thread.onSpinWait();
+        }
+    }
+
+    boolean tryWriteLock() {
+        long version = word.get();
+        return (version & (LOCKED | OBSOLETE)) == 0 && word.compareAndSet(version, version + LOCKED);
+    }
+
+    void writeUnlock() {
+        word.addAndGet(LOCKED);
+    }
+
+    // readers that still hold the node start over, it is not to be used again
+    void markObsolete() {
+        word.getAndUpdate(version -> version | OBSOLETE);
+    }
+}
@@ -0,0 +1,17 @@
+package BTree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size pages a paged B+ tree keeps its nodes in, referenced by page
+ * index. Page index 0 is never handed out, nodes use it for "no node".
+ */
+public interface PageStore {
+    int newPageIndex();
+
+    ByteBuffer readPage(int pageIndex);
+
+    void writePage(int pageIndex, byte[] data);
+
+    void freePage(int pageIndex);
+}
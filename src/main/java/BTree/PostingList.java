@@ -0,0 +1,504 @@
+package BTree;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * The set of values an index keeps under one key, iterated in ascending order.
+ *
+ * Integer values are kept Roaring style: they are split on their upper 16
+ * bits into containers, and a container holds the lower 16 bits either as a
+ * sorted array, while it has at most ARRAY_MAXIMUM of them, or as a bitmap of
+ * all 65536. Union and intersection work container by container, so a dense
+ * key costs 8KB per 65536 values instead of a boxed Integer each. Values of
+ * other types are kept in a sorted vector.
+ *
+ * Lists are synchronized like Vector; iterating a list that other threads
+ * change needs a copy.
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public final class PostingList implements Iterable<Object> {
+    // an array container is turned into a bitmap past this many values, where
+    // the array would take more than the 8KB of the bitmap
+    static final int ARRAY_MAXIMUM = 4096;
+
+    private static final byte ARRAY = 0;
+    private static final byte BITMAP = 1;
+
+    private final Vector<Container> containers; // ascending on high
+    private final Vector<Comparable> objects; // ascending
+
+    public PostingList() {
+        containers = new Vector<>();
+        objects = new Vector<>();
+    }
+
+    public PostingList(Collection<?> values) {
+        this();
+        for (Object value : values)
+            add(value);
+    }
+
+    private PostingList(Vector<Container> containers, Vector<Comparable> objects) {
+        this.containers = containers;
+        this.objects = objects;
+    }
+
+    public synchronized PostingList copy() {
+        Vector<Container> copies = new Vector<>(containers.size());
+        for (Container container : containers)
+            copies.add(container.copy());
+        return new PostingList(copies, new Vector<>(objects));
+    }
+
+    // returns whether the value was not in the list yet
+    public synchronized boolean add(Object value) {
+        if (!(value instanceof Integer)) {
+            int index = indexOf(objects, value);
+            if (index >= 0)
+                return false;
+            objects.add(-index - 1, (Comparable) value);
+            return true;
+        }
+
+        int bits = (Integer) value ^ Integer.MIN_VALUE;
+        char high = (char) (bits >>> 16);
+        int index = indexOf(high);
+        if (index < 0) {
+            index = -index - 1;
+            containers.add(index, new ArrayContainer(high));
+        }
+
+        Container container = containers.get(index);
+        int size = container.size();
+        containers.set(index, container.add((char) bits));
+        return containers.get(index).size() != size;
+    }
+
+    // returns whether the value was in the list
+    public synchronized boolean remove(Object value) {
+        if (!(value instanceof Integer)) {
+            int index = indexOf(objects, value);
+            if (index < 0)
+                return false;
+            objects.remove(index);
+            return true;
+        }
+
+        int bits = (Integer) value ^ Integer.MIN_VALUE;
+        int index = indexOf((char) (bits >>> 16));
+        if (index < 0)
+            return false;
+
+        Container container = containers.get(index);
+        int size = container.size();
+        container = container.remove((char) bits);
+        if (container.size() == 0)
+            containers.remove(index);
+        else
+            containers.set(index, container);
+        return container.size() != size;
+    }
+
+    public synchronized boolean contains(Object value) {
+        if (!(value instanceof Integer))
+            return indexOf(objects, value) >= 0;
+
+        int bits = (Integer) value ^ Integer.MIN_VALUE;
+        int index = indexOf((char) (bits >>> 16));
+        return index >= 0 && containers.get(index).contains((char) bits);
+    }
+
+    public synchronized int size() {
+        int size = objects.size();
+        for (Container container : containers)
+            size += container.size();
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return containers.isEmpty() && objects.isEmpty();
+    }
+
+    public synchronized Vector<Object> toVector() {
+        Vector<Object> values = new Vector<>(size());
+        for (Object value : this)
+            values.add(value);
+        return values;
+    }
+
+    // adds the values of other to this list. other is copied first, so two
+    // lists are never locked at once
+    public synchronized void addAll(PostingList other) {
+        other = other.copy();
+
+        int index = 0;
+        for (Container container : other.containers) {
+            while (index < containers.size() && containers.get(index).high < container.high)
+                index++;
+            if (index < containers.size() && containers.get(index).high == container.high)
+                containers.set(index, containers.get(index).or(container));
+            else
+                containers.add(index, container);
+            index++;
+        }
+
+        for (Comparable object : other.objects) {
+            int position = indexOf(objects, object);
+            if (position < 0)
+                objects.add(-position - 1, object);
+        }
+    }
+
+    // the values in either list
+    public static PostingList or(PostingList list1, PostingList list2) {
+        PostingList result = list1.copy();
+        result.addAll(list2);
+        return result;
+    }
+
+    // the values in both lists
+    public static PostingList and(PostingList list1, PostingList list2) {
+        list1 = list1.copy();
+        list2 = list2.copy();
+
+        Vector<Container> containers = new Vector<>();
+        int i = 0;
+        int j = 0;
+        while (i < list1.containers.size() && j < list2.containers.size()) {
+            Container container1 = list1.containers.get(i);
+            Container container2 = list2.containers.get(j);
+            if (container1.high < container2.high)
+                i++;
+            else if (container2.high < container1.high)
+                j++;
+            else {
+                Container container = container1.and(container2);
+                if (container.size() > 0)
+                    containers.add(container);
+                i++;
+                j++;
+            }
+        }
+
+        Vector<Comparable> objects = new Vector<>();
+        for (Comparable object : list1.objects)
+            if (indexOf(list2.objects, object) >= 0)
+                objects.add(object);
+        return new PostingList(containers, objects);
+    }
+
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int container = 0;
+            private int low = containers.isEmpty() ? -1 : containers.get(0).next(0);
+            private final Iterator<Comparable> rest = objects.iterator();
+
+            public boolean hasNext() {
+                return container < containers.size() || rest.hasNext();
+            }
+
+            public Object next() {
+                if (container == containers.size())
+                    return rest.next();
+
+                Container current = containers.get(container);
+                Integer value = ((current.high << 16) | low) ^ Integer.MIN_VALUE;
+
+                low = low == 0xFFFF ? -1 : current.next(low + 1);
+                if (low < 0 && ++container < containers.size())
+                    low = containers.get(container).next(0);
+                return value;
+            }
+        };
+    }
+
+    private static int indexOf(Vector<Comparable> objects, Object value) {
+        return Collections.binarySearch((List) objects, value);
+    }
+
+    private int indexOf(char high) {
+        int low = 0;
+        int highIndex = containers.size() - 1;
+        while (low <= highIndex) {
+            int middle = (low + highIndex) >>> 1;
+            char value = containers.get(middle).high;
+            if (value < high)
+                low = middle + 1;
+            else if (value > high)
+                highIndex = middle - 1;
+            else
+                return middle;
+        }
+        return -(low + 1);
+    }
+
+    // layout: int container count, then for every container its char high,
+    // byte ARRAY and char size and the sorted lower bits, or byte BITMAP and
+    // its 1024 longs. then int object count and the tagged objects
+    synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(containers.size());
+        for (Container container : containers) {
+            out.writeChar(container.high);
+            if (container instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) container;
+                out.writeByte(ARRAY);
+                out.writeChar(array.size);
+                for (int i = 0; i < array.size; i++)
+                    out.writeChar(array.values[i]);
+            } else {
+                out.writeByte(BITMAP);
+                for (long word : ((BitmapContainer) container).words)
+                    out.writeLong(word);
+            }
+        }
+
+        out.writeInt(objects.size());
+        for (Comparable object : objects)
+            NodeFormat.writeValue(out, object);
+    }
+
+    static PostingList read(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        Vector<Container> containers = new Vector<>(count);
+        for (int i = 0; i < count; i++) {
+            char high = buffer.getChar();
+            if (buffer.get() == ARRAY) {
+                ArrayContainer array = new ArrayContainer(high);
+                array.size = buffer.getChar();
+                array.values = new char[array.size];
+                buffer.asCharBuffer().get(array.values);
+                buffer.position(buffer.position() + 2 * array.size);
+                containers.add(array);
+            } else {
+                BitmapContainer bitmap = new BitmapContainer(high);
+                buffer.asLongBuffer().get(bitmap.words);
+                buffer.position(buffer.position() + 8 * bitmap.words.length);
+                for (long word : bitmap.words)
+                    bitmap.cardinality += Long.bitCount(word);
+                containers.add(bitmap);
+            }
+        }
+
+        count = buffer.getInt();
+        Vector<Comparable> objects = new Vector<>(count);
+        for (int i = 0; i < count; i++)
+            objects.add((Comparable) NodeFormat.readValue(buffer));
+        return new PostingList(containers, objects);
+    }
+
+    public String toString() {
+        return toVector().toString();
+    }
+
+    // the values of a list with the same upper 16 bits. add and remove return
+    // the container that holds the result, which is another one when the
+    // representation changed
+    private static abstract class Container {
+        final char high;
+
+        Container(char high) {
+            this.high = high;
+        }
+
+        abstract Container add(char low);
+
+        abstract Container remove(char low);
+
+        abstract boolean contains(char low);
+
+        abstract int size();
+
+        // the smallest value of at least from, -1 if there is none
+        abstract int next(int from);
+
+        abstract Container copy();
+
+        Container or(Container other) {
+            BitmapContainer result = toBitmap();
+            if (result == this)
+                result = (BitmapContainer) copy();
+            for (int low = other.next(0); low >= 0; low = low == 0xFFFF ? -1 : other.next(low + 1))
+                result.add((char) low);
+            return result.size() > ARRAY_MAXIMUM ? result : result.toArray();
+        }
+
+        Container and(Container other) {
+            ArrayContainer result = new ArrayContainer(high);
+            Container smaller = size() <= other.size() ? this : other;
+            Container larger = smaller == this ? other : this;
+            for (int low = smaller.next(0); low >= 0; low = low == 0xFFFF ? -1 : smaller.next(low + 1))
+                if (larger.contains((char) low))
+                    result.add((char) low);
+            return result;
+        }
+
+        abstract BitmapContainer toBitmap();
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values = new char[4];
+        int size;
+
+        ArrayContainer(char high) {
+            super(high);
+        }
+
+        private int indexOf(char low) {
+            return Arrays.binarySearch(values, 0, size, low);
+        }
+
+        Container add(char low) {
+            int index = indexOf(low);
+            if (index >= 0)
+                return this;
+            if (size == ARRAY_MAXIMUM)
+                return toBitmap().add(low);
+
+            index = -index - 1;
+            if (size == values.length)
+                values = Arrays.copyOf(values, Math.max(4, Math.min(ARRAY_MAXIMUM, size * 2)));
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = low;
+            size++;
+            return this;
+        }
+
+        Container remove(char low) {
+            int index = indexOf(low);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+            return this;
+        }
+
+        boolean contains(char low) {
+            return indexOf(low) >= 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int next(int from) {
+            int index = indexOf((char) from);
+            if (index < 0)
+                index = -index - 1;
+            return index < size ? values[index] : -1;
+        }
+
+        Container copy() {
+            ArrayContainer copy = new ArrayContainer(high);
+            copy.values = Arrays.copyOf(values, Math.max(size, 4));
+            copy.size = size;
+            return copy;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer(high);
+            for (int i = 0; i < size; i++)
+                bitmap.add(values[i]);
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words = new long[1024];
+        int cardinality;
+
+        BitmapContainer(char high) {
+            super(high);
+        }
+
+        Container add(char low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        Container remove(char low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                words[low >>> 6] &= ~bit;
+                cardinality--;
+            }
+            return cardinality > ARRAY_MAXIMUM ? this : toArray();
+        }
+
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        int size() {
+            return cardinality;
+        }
+
+        int next(int from) {
+            int word = from >>> 6;
+            long bits = words[word] & (-1L << from);
+            while (true) {
+                if (bits != 0)
+                    return word * 64 + Long.numberOfTrailingZeros(bits);
+                if (++word == words.length)
+                    return -1;
+                bits = words[word];
+            }
+        }
+
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer(high);
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        Container or(Container other) {
+            if (!(other instanceof BitmapContainer))
+                return super.or(other);
+
+            BitmapContainer result = new BitmapContainer(high);
+            long[] otherWords = ((BitmapContainer) other).words;
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] | otherWords[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            return result;
+        }
+
+        Container and(Container other) {
+            if (!(other instanceof BitmapContainer))
+                return super.and(other);
+
+            BitmapContainer result = new BitmapContainer(high);
+            long[] otherWords = ((BitmapContainer) other).words;
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] & otherWords[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            return result.cardinality > ARRAY_MAXIMUM ? result : result.toArray();
+        }
+
+        BitmapContainer toBitmap() {
+            return this;
+        }
+
+        ArrayContainer toArray() {
+            ArrayContainer array = new ArrayContainer(high);
+            array.values = new char[Math.max(cardinality, 4)];
+            for (int low = next(0); low >= 0; low = low == 0xFFFF ? -1 : next(low + 1))
+                array.values[array.size++] = (char) low;
+            return array;
+        }
+    }
+}
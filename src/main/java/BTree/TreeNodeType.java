@@ -0,0 +1,5 @@
+package BTree;
+
+enum TreeNodeType {
+	InnerNode, LeafNode
+}
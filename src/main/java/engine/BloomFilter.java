@@ -0,0 +1,125 @@
+package engine;
+
+import java.io.Serializable;
+
+// Bloom filter over the values of one column of one page, sized for a full
+// page at bitsPerValue bits per tuple. Like the zone maps it only has to
+// contain the page: inserts and updates add to it and it is built again from
+// the tuples whenever the page is written back. The counters below are kept
+// for every filter of the process and report how often a probe let a page be
+// skipped and how often a page it let through held no match.
+public class BloomFilter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static int bitsPerValue = 10;
+
+    private static long probes;
+    private static long skipped;
+    private static long falsePositives;
+
+    private final byte type; // PageFormat type of the column
+    private final long[] bits;
+    private final int hashCount;
+    private int valueCount;
+
+    public BloomFilter(byte type) {
+        this.type = type;
+        int size = Math.max(64, Page.maxRowCount * bitsPerValue);
+        this.bits = new long[(size + 63) / 64];
+        this.hashCount = Math.max(1, (int) Math.round(bitsPerValue * Math.log(2)));
+    }
+
+    public void add(Object value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long size = (long) bits.length * 64;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) (((h1 + (long) i * h2) & Long.MAX_VALUE) % size);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        valueCount++;
+    }
+
+    // false only if no tuple of the page has the value. a value of another
+    // type than the column cannot be ruled out here
+    public boolean mightContain(Object value) {
+        if (typeOf(value) != type)
+            return true;
+
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long size = (long) bits.length * 64;
+        boolean result = true;
+        for (int i = 0; i < hashCount && result; i++) {
+            int bit = (int) (((h1 + (long) i * h2) & Long.MAX_VALUE) % size);
+            result = (bits[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        synchronized (BloomFilter.class) {
+            probes++;
+            if (!result)
+                skipped++;
+        }
+        return result;
+    }
+
+    // (1 - e^(-kn/m))^k for the values added so far
+    public double getExpectedFalsePositiveRate() {
+        double size = bits.length * 64.0;
+        return Math.pow(1 - Math.exp(-hashCount * valueCount / size), hashCount);
+    }
+
+    // called when a page a filter let through had no tuple with the value
+    public static synchronized void falsePositive() {
+        falsePositives++;
+    }
+
+    // share of the pages without the value that were still read
+    public static synchronized double getFalsePositiveRate() {
+        long negatives = skipped + falsePositives;
+        return negatives == 0 ? 0 : (double) falsePositives / negatives;
+    }
+
+    public static synchronized void resetStatistics() {
+        probes = 0;
+        skipped = 0;
+        falsePositives = 0;
+    }
+
+    public static synchronized String getStatistics() {
+        return "probes=" + probes + ", skipped=" + skipped + ", falsePositives=" + falsePositives + ", fpr="
+                + String.format("%.4f", getFalsePositiveRate());
+    }
+
+    private static byte typeOf(Object value) {
+        if (value instanceof Integer)
+            return PageFormat.TYPE_INTEGER;
+        if (value instanceof Double)
+            return PageFormat.TYPE_DOUBLE;
+        return PageFormat.TYPE_STRING;
+    }
+
+    private static long hash(Object value) {
+        long hash;
+        if (value instanceof Integer)
+            hash = (Integer) value;
+        else if (value instanceof Double)
+            hash = Double.doubleToLongBits((Double) value);
+        else {
+            hash = 0xcbf29ce484222325L; // fnv-1a over the chars
+            String string = value.toString();
+            for (int i = 0; i < string.length(); i++)
+                hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+        }
+
+        // murmur3 finalizer, spreads the bits over both halves
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
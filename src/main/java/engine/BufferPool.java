@@ -0,0 +1,231 @@
+package engine;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+// Process-wide cache of decoded pages shared by every Table instance.
+// Frames are keyed by table name and page index and replaced with the
+// clock algorithm; a page that is pinned is never evicted. A dirty page is
+// not evicted either: the table files must keep the state of the last
+// checkpoint, which the log is replayed on, so dirty pages are only written
+// back by flushAll.
+public class BufferPool {
+    public static int maxPageCount = 64;
+
+    private static final Hashtable<String, Frame> frames = new Hashtable<>();
+    private static final Vector<String> clock = new Vector<>();
+    private static int hand;
+
+    private static long hits;
+    private static long misses;
+    private static long evictions;
+
+    private static class Frame {
+        private final String tableName;
+        private Page page;
+        private int pinCount;
+        private boolean dirty;
+        private boolean referenced;
+
+        private Frame(String tableName, Page page) {
+            this.tableName = tableName;
+            this.page = page;
+        }
+    }
+
+    private static String key(String tableName, int pageIndex) {
+        return tableName + "\\" + pageIndex;
+    }
+
+    // returns the page, decoding it from the table file only if it is not
+    // already cached. every pin must be matched by an unpin
+    public static synchronized Page pin(String tableName, int pageIndex) throws DBAppException {
+        String key = key(tableName, pageIndex);
+        Frame frame = frames.get(key);
+        if (frame != null) {
+            hits++;
+        } else {
+            misses++;
+            Page page = PageFormat.decode(TableFile.open(tableName).readPage(pageIndex));
+            frame = install(key, new Frame(tableName, page));
+        }
+
+        frame.pinCount++;
+        frame.referenced = true;
+        return frame.page;
+    }
+
+    // for read-only callers: the page is pinned only while it is looked up, so
+    // it may be evicted afterwards but the returned object stays usable
+    public static synchronized Page fetch(String tableName, int pageIndex) throws DBAppException {
+        Page page = pin(tableName, pageIndex);
+        unpin(tableName, pageIndex, false);
+        return page;
+    }
+
+    // returns the page only if it is already cached, callers that get null can
+    // read the table file directly instead of bringing the page into the pool
+    public static synchronized Page peek(String tableName, int pageIndex) {
+        Frame frame = frames.get(key(tableName, pageIndex));
+        if (frame == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        frame.referenced = true;
+        return frame.page;
+    }
+
+    // registers a page that does not exist on disk yet, the page is returned
+    // pinned and dirty
+    public static synchronized void create(String tableName, Page page) throws DBAppException {
+        String key = key(tableName, page.getPageIndex());
+        Frame frame = frames.get(key);
+        if (frame == null)
+            frame = install(key, new Frame(tableName, page));
+
+        frame.page = page;
+        frame.pinCount++;
+        frame.referenced = true;
+        frame.dirty = true;
+    }
+
+    public static synchronized void unpin(String tableName, int pageIndex, boolean dirty) {
+        Frame frame = frames.get(key(tableName, pageIndex));
+        if (frame == null)
+            return;
+
+        if (frame.pinCount > 0)
+            frame.pinCount--;
+        frame.dirty |= dirty;
+    }
+
+    public static synchronized boolean isDirty(String tableName, int pageIndex) {
+        Frame frame = frames.get(key(tableName, pageIndex));
+        return frame != null && frame.dirty;
+    }
+
+    private static void flush(Frame frame) throws DBAppException {
+        if (!frame.dirty)
+            return;
+
+        TableFile.open(frame.tableName).writePage(frame.page);
+        frame.dirty = false;
+    }
+
+    // writes back every dirty page and then syncs the table files they were
+    // written to
+    public static synchronized void flushAll() throws DBAppException {
+        writeDirtyPages();
+        TableFile.flushAll();
+    }
+
+    // copies every dirty page into its table file without syncing it, the
+    // checkpoint syncs the files after it let operations continue
+    public static synchronized void writeDirtyPages() throws DBAppException {
+        for (String key : clock)
+            flush(frames.get(key));
+    }
+
+    // drops a page without writing it back, used when the page is deleted
+    public static synchronized void discard(String tableName, int pageIndex) {
+        discard(key(tableName, pageIndex));
+    }
+
+    private static void discard(String key) {
+        if (frames.remove(key) == null)
+            return;
+
+        int index = clock.indexOf(key);
+        clock.remove(index);
+        if (hand > index)
+            hand--;
+        if (hand >= clock.size())
+            hand = 0;
+    }
+
+    public static synchronized void clear() throws DBAppException {
+        flushAll();
+        frames.clear();
+        clock.clear();
+        hand = 0;
+    }
+
+    private static Frame install(String key, Frame frame) throws DBAppException {
+        if (frames.size() >= maxPageCount)
+            evict();
+
+        frames.put(key, frame);
+        clock.add(key);
+        return frame;
+    }
+
+    // clock sweep: a referenced frame gets a second chance, a pinned or dirty
+    // frame is skipped. if no frame can be evicted the pool is allowed to grow
+    // past its budget until the next checkpoint instead of failing the operation
+    private static void evict() throws DBAppException {
+        for (int step = 0; step < 2 * clock.size(); step++) {
+            if (hand >= clock.size())
+                hand = 0;
+
+            String key = clock.get(hand);
+            Frame frame = frames.get(key);
+
+            if (frame.pinCount > 0 || frame.dirty) {
+                hand++;
+                continue;
+            }
+
+            if (frame.referenced) {
+                frame.referenced = false;
+                hand++;
+                continue;
+            }
+
+            discard(key);
+            evictions++;
+            return;
+        }
+    }
+
+    public static synchronized long getHitCount() {
+        return hits;
+    }
+
+    public static synchronized long getMissCount() {
+        return misses;
+    }
+
+    public static synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public static synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public static synchronized int getCachedPageCount() {
+        return frames.size();
+    }
+
+    public static synchronized int getDirtyPageCount() {
+        int dirty = 0;
+        for (Frame frame : frames.values())
+            if (frame.dirty)
+                dirty++;
+        return dirty;
+    }
+
+    public static synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public static synchronized String getStatistics() {
+        return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", cached=" + frames.size()
+                + "/" + maxPageCount + ", dirty=" + getDirtyPageCount();
+    }
+}
@@ -0,0 +1,287 @@
+package engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+// Schema of every table, loaded once by DBApp.init() and kept in memory
+// together with one Table instance per table. It is stored in
+// Tables\catalog.bin, an append-only file of records
+//   int  length, int crc32 of the payload
+//   byte CREATE_TABLE, utf table, utf clustering column, short count,
+//        then count times: utf column, utf type
+//   byte CREATE_INDEX, utf table, utf column, utf index name
+// so creating a table or an index appends one record instead of rewriting
+// the file. Trees that still have a Tables\metadata.csv are imported from it
+// the first time.
+public class Catalog {
+    public static final byte CREATE_TABLE = 1;
+    public static final byte CREATE_INDEX = 2;
+
+    private static final String CATALOG_PATH = "Tables\\catalog.bin";
+    private static final String METADATA_PATH = "Tables\\metadata.csv";
+
+    private static final Hashtable<String, Schema> schemas = new Hashtable<>();
+    private static final Hashtable<String, Table> tables = new Hashtable<>();
+    private static boolean loaded;
+
+    public static class Schema {
+        private final String tableName;
+        private final String clusteringColumn;
+        private final Vector<String> columnNames = new Vector<>(); // in the order they were created
+        private final Hashtable<String, String> columnTypes = new Hashtable<>();
+        private final Hashtable<String, String> indexNames = new Hashtable<>(); // column -> index name
+
+        private Schema(String tableName, String clusteringColumn) {
+            this.tableName = tableName;
+            this.clusteringColumn = clusteringColumn;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public String getClusteringColumn() {
+            return clusteringColumn;
+        }
+
+        public Vector<String> getColumnNames() {
+            return columnNames;
+        }
+
+        public String getColumnType(String columnName) {
+            return columnTypes.get(columnName);
+        }
+
+        public Hashtable<String, String> getIndexNames() {
+            return indexNames;
+        }
+    }
+
+    public static synchronized void load() throws DBAppException {
+        if (loaded)
+            return;
+
+        schemas.clear();
+        tables.clear();
+        new File("Tables").mkdirs();
+
+        if (new File(CATALOG_PATH).exists())
+            readCatalog();
+        else if (new File(METADATA_PATH).exists())
+            importMetadata();
+
+        loaded = true;
+    }
+
+    // forgets the cached tables, load reads the catalog again
+    public static synchronized void close() {
+        schemas.clear();
+        tables.clear();
+        loaded = false;
+    }
+
+    public static synchronized boolean exists(String tableName) {
+        return schemas.containsKey(tableName);
+    }
+
+    public static synchronized Schema getSchema(String tableName) throws DBAppException {
+        Schema schema = schemas.get(tableName);
+        if (schema == null)
+            throw new DBAppException("Table does not exist.");
+        return schema;
+    }
+
+    // the one Table instance of the table, created the first time it is used
+    public static synchronized Table getTable(String tableName) throws DBAppException {
+        Table table = tables.get(tableName);
+        if (table == null) {
+            table = Table.open(tableName);
+            tables.put(tableName, table);
+        }
+        return table;
+    }
+
+    public static synchronized void createTable(String tableName, String clusteringColumn,
+            Hashtable<String, String> columnTypes) throws DBAppException {
+        if (schemas.containsKey(tableName))
+            throw new DBAppException("Table already exists");
+
+        Schema schema = new Schema(tableName, clusteringColumn);
+        for (Map.Entry<String, String> column : columnTypes.entrySet())
+            addColumn(schema, column.getKey(), column.getValue());
+
+        append(encodeTable(schema));
+        schemas.put(tableName, schema);
+    }
+
+    public static synchronized void createIndex(String tableName, String columnName, String indexName)
+            throws DBAppException {
+        Schema schema = getSchema(tableName);
+        if (!schema.columnTypes.containsKey(columnName))
+            throw new DBAppException("Column does not exist");
+
+        append(encodeIndex(tableName, columnName, indexName));
+        schema.indexNames.put(columnName, indexName);
+    }
+
+    private static void addColumn(Schema schema, String columnName, String columnType) {
+        schema.columnNames.add(columnName);
+        schema.columnTypes.put(columnName, columnType);
+    }
+
+    private static void append(byte[] payload) throws DBAppException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        record.flip();
+
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(CATALOG_PATH), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            while (record.hasRemaining())
+                channel.write(record);
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            throw new DBAppException("Could not write the catalog");
+        }
+    }
+
+    private static byte[] encodeTable(Schema schema) throws DBAppException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(CREATE_TABLE);
+            out.writeUTF(schema.tableName);
+            out.writeUTF(schema.clusteringColumn);
+            out.writeShort(schema.columnNames.size());
+            for (String columnName : schema.columnNames) {
+                out.writeUTF(columnName);
+                out.writeUTF(schema.columnTypes.get(columnName));
+            }
+
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new DBAppException("Could not encode catalog record");
+        }
+    }
+
+    private static byte[] encodeIndex(String tableName, String columnName, String indexName)
+            throws DBAppException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(CREATE_INDEX);
+            out.writeUTF(tableName);
+            out.writeUTF(columnName);
+            out.writeUTF(indexName);
+
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new DBAppException("Could not encode catalog record");
+        }
+    }
+
+    private static void readCatalog() throws DBAppException {
+        ByteBuffer catalog = ByteBuffer.wrap(Serializer.readBytes(CATALOG_PATH));
+
+        try {
+            while (catalog.remaining() >= 8) {
+                int length = catalog.getInt();
+                int checksum = catalog.getInt();
+                if (length < 0 || length > catalog.remaining())
+                    break; // torn write of the last record
+
+                byte[] payload = new byte[length];
+                catalog.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum)
+                    break;
+
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                if (in.readByte() == CREATE_TABLE) {
+                    String tableName = in.readUTF();
+                    Schema schema = new Schema(tableName, in.readUTF());
+                    int count = in.readShort();
+                    for (int i = 0; i < count; i++)
+                        addColumn(schema, in.readUTF(), in.readUTF());
+                    schemas.put(schema.tableName, schema);
+                } else {
+                    Schema schema = schemas.get(in.readUTF());
+                    String columnName = in.readUTF();
+                    String indexName = in.readUTF();
+                    if (schema != null)
+                        schema.indexNames.put(columnName, indexName);
+                }
+            }
+        } catch (IOException e) {
+            throw new DBAppException("Corrupted catalog");
+        }
+    }
+
+    // Table Name,Column Name,Column Type,ClusteringKey,IndexName,IndexType
+    private static void importMetadata() throws DBAppException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(METADATA_PATH));
+        } catch (IOException e) {
+            throw new DBAppException("Could not read metadata file");
+        }
+
+        Hashtable<String, Vector<String[]>> rows = new Hashtable<>();
+        Vector<String> tableNames = new Vector<>();
+        for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+            String[] data = line.split(",");
+            if (data.length < 6)
+                continue;
+
+            if (!rows.containsKey(data[0])) {
+                rows.put(data[0], new Vector<>());
+                tableNames.add(data[0]);
+            }
+            rows.get(data[0]).add(data);
+        }
+
+        for (String tableName : tableNames) {
+            String clusteringColumn = null;
+            for (String[] data : rows.get(tableName))
+                if (Boolean.parseBoolean(data[3]))
+                    clusteringColumn = data[1];
+            if (clusteringColumn == null)
+                continue;
+
+            Schema schema = new Schema(tableName, clusteringColumn);
+            for (String[] data : rows.get(tableName))
+                addColumn(schema, data[1], data[2]);
+            append(encodeTable(schema));
+            schemas.put(tableName, schema);
+
+            for (String[] data : rows.get(tableName))
+                if (!data[4].equals("null"))
+                    createIndex(tableName, data[1], data[4]);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package engine;
+
+// Background thread that checkpoints the log so that writing pages, ranges and
+// indexes back to disk is not part of any operation. It wakes up every
+// interval milliseconds, or earlier when the log or the dirty pages grow past
+// their thresholds, and checkpoints if anything was logged since the last run.
+// An interval of 0 only checkpoints on those thresholds.
+public class Checkpointer {
+    public static long interval = 1000;
+    public static double dirtyRatio = 0.5;
+
+    private static Thread thread;
+    private static boolean running;
+    private static boolean requested;
+    private static DBAppException failure;
+
+    public static synchronized void start() {
+        if (running)
+            return;
+
+        running = true;
+        thread = new Thread(Checkpointer::run, "checkpointer");
+        thread.setDaemon(true); // whatever it did not write yet is still in the log
+        thread.start();
+    }
+
+    // stops the thread after its current checkpoint, if any
+    public static void stop() {
+        Thread stopped;
+        synchronized (Checkpointer.class) {
+            if (!running)
+                return;
+
+            running = false;
+            stopped = thread;
+            Checkpointer.class.notifyAll();
+        }
+
+        try {
+            stopped.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // whether enough is dirty that a checkpoint should not wait for the
+    // interval to pass
+    public static boolean isDue() {
+        return WriteAheadLog.isFull() || BufferPool.getDirtyPageCount() >= dirtyRatio * BufferPool.maxPageCount;
+    }
+
+    public static synchronized void request() {
+        requested = true;
+        Checkpointer.class.notifyAll();
+    }
+
+    // a failed background checkpoint is reported to the next operation, the
+    // log still holds everything so nothing is lost
+    public static synchronized void throwFailure() throws DBAppException {
+        DBAppException e = failure;
+        failure = null;
+        if (e != null)
+            throw new DBAppException("Checkpoint failed: " + e.getMessage());
+    }
+
+    private static void run() {
+        while (true) {
+            synchronized (Checkpointer.class) {
+                try {
+                    if (running && !requested)
+                        Checkpointer.class.wait(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (!running)
+                    return;
+                requested = false;
+            }
+
+            if (WriteAheadLog.isEmpty())
+                continue;
+
+            try {
+                WriteAheadLog.checkpoint();
+            } catch (DBAppException e) {
+                synchronized (Checkpointer.class) {
+                    failure = e;
+                }
+            }
+        }
+    }
+}
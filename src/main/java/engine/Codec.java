@@ -0,0 +1,140 @@
+package engine;
+
+import java.nio.ByteBuffer;
+
+// Block compression applied by the storage layer to page slots and index
+// files. A compressed block is framed as
+//   byte magic (0x5A), byte codec id, int original length, payload
+// which can never be confused with a binary page (0x50 0x47) or a java
+// serialization stream (0xAC 0xED), so readers decide per block whether it has
+// to be decompressed. Every codec keeps its own ratio and decode time counters.
+public abstract class Codec {
+    public static final byte MAGIC = 0x5A;
+    private static final int FRAME_HEADER_SIZE = 6;
+
+    public static final Codec NONE = new Identity();
+    public static final Codec LZ4 = new LZ4Codec();
+
+    private long rawBytes;
+    private long compressedBytes;
+    private long decodedBlocks;
+    private long decodeNanos;
+
+    public abstract byte getId();
+
+    public abstract String getName();
+
+    protected abstract byte[] encode(byte[] data);
+
+    protected abstract void decode(byte[] source, byte[] destination);
+
+    public static Codec forName(String name) throws DBAppException {
+        if (name == null || name.equalsIgnoreCase(NONE.getName()))
+            return NONE;
+        if (name.equalsIgnoreCase(LZ4.getName()))
+            return LZ4;
+
+        throw new DBAppException("Unsupported compression codec");
+    }
+
+    public static Codec forId(byte id) throws DBAppException {
+        if (id == NONE.getId())
+            return NONE;
+        if (id == LZ4.getId())
+            return LZ4;
+
+        throw new DBAppException("Unknown compression codec " + id);
+    }
+
+    public static boolean isCompressed(byte[] data) {
+        return data.length >= FRAME_HEADER_SIZE && data[0] == MAGIC;
+    }
+
+    public static boolean isCompressed(ByteBuffer buffer) {
+        return buffer.remaining() >= FRAME_HEADER_SIZE && buffer.get(buffer.position()) == MAGIC;
+    }
+
+    // returns data unchanged for NONE, otherwise a framed compressed block
+    public byte[] compress(byte[] data) {
+        if (this == NONE)
+            return data;
+
+        byte[] payload = encode(data);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        frame.put(MAGIC);
+        frame.put(getId());
+        frame.putInt(data.length);
+        frame.put(payload);
+
+        synchronized (this) {
+            rawBytes += data.length;
+            compressedBytes += frame.capacity();
+        }
+        return frame.array();
+    }
+
+    public static byte[] decompress(byte[] data) throws DBAppException {
+        return isCompressed(data) ? decompress(ByteBuffer.wrap(data)) : data;
+    }
+
+    // inflates a framed block, the codec is taken from the frame itself
+    public static byte[] decompress(ByteBuffer frame) throws DBAppException {
+        int start = frame.position();
+        Codec codec = forId(frame.get(start + 1));
+        byte[] destination = new byte[frame.getInt(start + 2)];
+        byte[] source = new byte[frame.remaining() - FRAME_HEADER_SIZE];
+        frame.get(start + FRAME_HEADER_SIZE, source);
+
+        long begin = System.nanoTime();
+        try {
+            codec.decode(source, destination);
+        } catch (RuntimeException e) {
+            throw new DBAppException("Corrupted " + codec.getName() + " block");
+        }
+
+        synchronized (codec) {
+            codec.decodedBlocks++;
+            codec.decodeNanos += System.nanoTime() - begin;
+        }
+        return destination;
+    }
+
+    public synchronized double getCompressionRatio() {
+        return compressedBytes == 0 ? 1 : (double) rawBytes / compressedBytes;
+    }
+
+    public synchronized double getAverageDecodeMicros() {
+        return decodedBlocks == 0 ? 0 : decodeNanos / 1000.0 / decodedBlocks;
+    }
+
+    public synchronized void resetStatistics() {
+        rawBytes = 0;
+        compressedBytes = 0;
+        decodedBlocks = 0;
+        decodeNanos = 0;
+    }
+
+    public synchronized String getStatistics() {
+        return getName() + ": raw=" + rawBytes + ", compressed=" + compressedBytes + ", ratio="
+                + String.format("%.2f", getCompressionRatio()) + ", decoded=" + decodedBlocks + ", decodeTime="
+                + String.format("%.1f", getAverageDecodeMicros()) + "us/block";
+    }
+
+    private static class Identity extends Codec {
+        public byte getId() {
+            return 0;
+        }
+
+        public String getName() {
+            return "none";
+        }
+
+        protected byte[] encode(byte[] data) {
+            return data;
+        }
+
+        protected void decode(byte[] source, byte[] destination) {
+            System.arraycopy(source, 0, destination, 0, destination.length);
+        }
+    }
+}
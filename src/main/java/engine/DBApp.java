@@ -3,11 +3,10 @@ package engine;
 /** * @author Wael Abouelsaadat */
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
 
+import BTree.BTreePlus;
+
 @SuppressWarnings({ "unchecked", "removal", "rawtypes" })
 public class DBApp {
 
@@ -27,6 +26,59 @@ public class DBApp {
 			throw new RuntimeException(e);
 		}
 		Page.maxRowCount = Integer.parseInt(properties.getProperty("MaximumRowsCountinPage"));
+		BufferPool.maxPageCount = Integer.parseInt(properties.getProperty("MaximumPagesInBufferPool", "64"));
+		// slot size of new tables, 0 to size it from the rows per page
+		TableFile.pageSize = Integer.parseInt(properties.getProperty("PageSizeInBytes", "0"));
+		TableFile.extentPageCount = Integer.parseInt(properties.getProperty("ExtentSizeInPages", "16"));
+		WriteAheadLog.maxLogSize = Long.parseLong(properties.getProperty("MaximumLogSizeInBytes", "16777216"));
+		Checkpointer.interval = Long.parseLong(properties.getProperty("CheckpointIntervalInMillis", "1000"));
+		Checkpointer.dirtyRatio = Double.parseDouble(properties.getProperty("CheckpointDirtyRatio", "0.5"));
+		BloomFilter.bitsPerValue = Integer.parseInt(properties.getProperty("BloomFilterBitsPerValue", "10"));
+		BTreePlus.fillFactor = Double.parseDouble(properties.getProperty("IndexFillFactor", "0.8"));
+		BTreePlus.order = Integer.parseInt(properties.getProperty("IndexNodeOrder", "256"));
+		BTreePlus.maxNodeCount = Integer.parseInt(properties.getProperty("MaximumNodesInIndexCache", "256"));
+		// threads a full scan is split across, 0 for one per processor
+		int parallelism = Integer.parseInt(properties.getProperty("ScanParallelism", "0"));
+		ParallelScan.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+
+		// the catalog is read once here, then redo whatever was logged after
+		// the last checkpoint
+		try {
+			Catalog.load();
+			WriteAheadLog.open();
+		} catch (DBAppException e) {
+			throw new RuntimeException(e);
+		}
+		Checkpointer.start();
+	}
+
+	// writes everything cached back to the table files and empties the log
+	public void checkpoint() throws DBAppException {
+		WriteAheadLog.checkpoint();
+	}
+
+	// clean shutdown: stops the checkpointer, checkpoints and closes every
+	// file. init has to be called again before the next operation
+	public void close() throws DBAppException {
+		Checkpointer.stop();
+		WriteAheadLog.close();
+		BufferPool.clear();
+		TableFile.closeAll();
+		Catalog.close();
+	}
+
+	// makes a logged operation durable, the table files themselves are
+	// written back by the checkpointer
+	private void commit(long record) throws DBAppException {
+		WriteAheadLog.commit(record);
+		Checkpointer.throwFailure();
+
+		// the checkpointer is asked to start early, and if it fell far behind
+		// the caller checkpoints itself so the dirty pages stay bounded
+		if (BufferPool.getDirtyPageCount() >= 2 * BufferPool.maxPageCount)
+			WriteAheadLog.checkpoint();
+		else if (Checkpointer.isDue())
+			Checkpointer.request();
 	}
 
 	// following method creates one table only
@@ -38,6 +90,23 @@ public class DBApp {
 	public void createTable(String strTableName,
 			String strClusteringKeyColumn,
 			Hashtable<String, String> htblColNameType) throws DBAppException {
+		createTable(strTableName, strClusteringKeyColumn, htblColNameType, new Hashtable<>());
+	}
+
+	// same as above, htblTableOptions holds storage options of the table:
+	// "PageLayout" -> "row" (default) or "pax", pax pages store every column
+	// in its own minipage so scans filtering one column only decode that column
+	// "Compression" -> "none" (default) or "lz4", applied to the table's pages
+	// and to its B+ tree index files
+	// "BloomFilters" -> comma separated columns whose pages get a Bloom filter,
+	// so = lookups and deletes on them skip pages that do not hold the value
+	public void createTable(String strTableName,
+			String strClusteringKeyColumn,
+			Hashtable<String, String> htblColNameType,
+			Hashtable<String, String> htblTableOptions) throws DBAppException {
+		byte layout = PageFormat.layoutOf(htblTableOptions.get("PageLayout"));
+		Codec codec = Codec.forName(htblTableOptions.get("Compression"));
+
 		Collection<String> values = htblColNameType.values();
 		for (String value : values) {
 			if (!value.equalsIgnoreCase("java.lang.double") &&
@@ -47,103 +116,135 @@ public class DBApp {
 			}
 		}
 
+		if (!htblColNameType.containsKey(strClusteringKeyColumn))
+			throw new DBAppException("No clustering column??");
+
+		if (Catalog.exists(strTableName))
+			throw new DBAppException("Table already exists");
+
+		Vector<String> bloomColumns = new Vector<>();
+		String bloomFilters = htblTableOptions.get("BloomFilters");
+		if (bloomFilters != null && !bloomFilters.isBlank())
+			for (String column : bloomFilters.split(","))
+				bloomColumns.add(column.trim());
+		for (String column : bloomColumns)
+			if (!htblColNameType.containsKey(column))
+				throw new DBAppException("Column does not exist");
+
 		// Create directory where we store tables
 		File tableFolder = new File("Tables\\" + strTableName);
 		if (!tableFolder.isDirectory() && !tableFolder.mkdirs()) {
 			throw new DBAppException("Could not create folder");
 		}
 
-		try {
+		Catalog.createTable(strTableName, strClusteringKeyColumn, htblColNameType);
 
-			Path csvPath = Paths.get("Tables\\metadata.csv");
-			BufferedWriter csv = new BufferedWriter(new FileWriter(csvPath.toString()));
+		TableFile file = TableFile.open(strTableName);
+		file.setLayout(layout);
+		file.setCodec(codec);
 
-			// Check if table already exists in metadata
-			if (Files.readAllLines(csvPath).stream().skip(0)
-					.anyMatch(data -> data.split(",")[0].equals(strTableName))) {
-				csv.close();
-				throw new DBAppException("Table already exists");
-			}
-
-			// If metadata.csv doesn't exist, write the header
-			if (Files.size(csvPath) == 0)
-				csv.write("Table Name,Column Name,Column Type,ClusteringKey,IndexName,IndexType\n");
-
-			for (Map.Entry<String, String> column : htblColNameType.entrySet()) {
-				String info = strTableName + "," + column.getKey() + "," + column.getValue() + ","
-						+ strClusteringKeyColumn.equals(column.getKey()) + ",null,null\n";
-				csv.write(info);
-			}
-
-			csv.close();
+		Table table = Catalog.getTable(strTableName);
+		Vector<Integer> bloomOrdinals = new Vector<>();
+		for (String column : bloomColumns)
+			bloomOrdinals.add(table.getIndexOfColumn(column));
+		file.setBloomFilterColumns(bloomOrdinals);
 
-		} catch (IOException e) {
-			throw new DBAppException("An error occurred.");
+		// a checkpoint running meanwhile installs the files it listed, which
+		// the flush must not do at the same time
+		synchronized (WriteAheadLog.checkpointLock) {
+			file.flush();
 		}
-
 	}
 
 	// following method creates a B+tree index
 	public void createIndex(String strTableName,
 			String strColName,
 			String strIndexName) throws DBAppException {
+		createIndex(strTableName, strColName, strIndexName, BTreePlus.order);
+	}
 
-		String filePath = "Tables\\metadata.csv";
-		String lineToModify = strTableName + "," + strColName;
-
-		try {
-			// Read the file into memory and make modifications
-			File inputFile = new File(filePath);
-			File tempFile = new File("Tables\\tempFile.txt");
+	// same as above, the nodes of the index hold up to intNodeOrder keys. the
+	// order is kept with the index, a high one keeps the tree shallow so a
+	// lookup reads few nodes. it has to be an even number of at least 4
+	public void createIndex(String strTableName,
+			String strColName,
+			String strIndexName,
+			int intNodeOrder) throws DBAppException {
 
-			BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-			BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile));
+		Table table = Catalog.getTable(strTableName);
+		if (table.getColumnDataType(strColName) == null)
+			throw new DBAppException("Column does not exist");
+		if (intNodeOrder < 4 || intNodeOrder % 2 != 0)
+			throw new DBAppException("Invalid index order");
+
+		// the index is built from the cached pages, so it has to reach the
+		// disk in the same checkpoint as they do. the catalog only points to
+		// it once it is there
+		synchronized (WriteAheadLog.checkpointLock) {
+			synchronized (WriteAheadLog.class) {
+				table.createIndex(strColName, strIndexName, intNodeOrder);
+			}
+			WriteAheadLog.checkpoint();
+			Catalog.createIndex(strTableName, strColName, strIndexName);
+		}
+	}
 
-			String currentLine;
+	// inserts many rows at once. the rows are checked and sorted on the
+	// clustering key up front, then merged into the table a chunk at a time:
+	// each chunk rewrites the pages it falls into in one pass, writes full
+	// pages and updates every index in key order, and is committed with one
+	// log force. a chunk dirties at most half of the buffer pool so the
+	// checkpointer can keep up. fails before inserting anything if a row is
+	// invalid or repeats a key
+	public void bulkInsert(String strTableName,
+			Iterable<Hashtable<String, Object>> rows) throws DBAppException {
+		Table t = Catalog.getTable(strTableName);
+
+		Vector<Tuple> tuples = new Vector<>();
+		for (Hashtable<String, Object> row : rows)
+			tuples.add(t.toTuple(row));
+		Collections.sort(tuples);
+		synchronized (WriteAheadLog.class) {
+			t.checkDuplicates(tuples);
+		}
 
-			while ((currentLine = reader.readLine()) != null) {
-				// Replace the line if it matches the line to modify
-				if (currentLine.contains(lineToModify)) {
-					String[] data = currentLine.split(",");
-					data[4] = strIndexName;
-					data[5] = "B+tree";
+		int maxPages = Math.max(1, BufferPool.maxPageCount / 2);
+		int inserted = 0;
+		while (inserted < tuples.size()) {
+			long record = 0;
 
-					currentLine = String.join(",", data);
+			synchronized (WriteAheadLog.class) {
+				List<Tuple> chunk = tuples.subList(inserted, tuples.size());
+				int count = t.bulkInsert(chunk, maxPages);
 
-				}
-				writer.write(currentLine + System.getProperty("line.separator"));
+				for (Tuple tuple : chunk.subList(0, count))
+					record = WriteAheadLog.logInsert(strTableName, t.toRecords(tuple));
+				inserted += count;
 			}
 
-			// Close resources
-			reader.close();
-			writer.close();
-
-			// Replace the original file with the modified file
-			if (!inputFile.delete()) {
-				throw new DBAppException("Could not delete the original file.");
-			}
-			if (!tempFile.renameTo(inputFile)) {
-				throw new DBAppException("Could not rename the temporary file.");
-			}
-		} catch (IOException e) {
-			throw new DBAppException("Error modifying metadata file");
+			commit(record);
 		}
-		Table t = new Table(strTableName);
-		t.createIndex(strColName, strIndexName);
 	}
 
 	// following method inserts one row only.
 	// htblColNameValue must include a value for the primary key
 	public void insertIntoTable(String strTableName,
 			Hashtable<String, Object> htblColNameValue) throws DBAppException {
-		Table t = new Table(strTableName);
+		long record;
 
-		try {
-			t.insert(htblColNameValue);
-		} catch (Exception ex) {
-			throw new DBAppException(ex.getMessage());
+		synchronized (WriteAheadLog.class) {
+			Table t = Catalog.getTable(strTableName);
+
+			try {
+				t.insert(htblColNameValue);
+			} catch (Exception ex) {
+				throw new DBAppException(ex.getMessage());
+			}
+
+			record = WriteAheadLog.logInsert(strTableName, htblColNameValue);
 		}
 
+		commit(record);
 	}
 
 	// following method updates one row only
@@ -154,8 +255,16 @@ public class DBApp {
 			String strClusteringKeyValue,
 			Hashtable<String, Object> htblColNameValue) throws DBAppException {
 
-		Table table = new Table(strTableName);
-		table.update(strClusteringKeyValue, htblColNameValue);
+		long record;
+
+		synchronized (WriteAheadLog.class) {
+			Table table = Catalog.getTable(strTableName);
+			table.update(strClusteringKeyValue, htblColNameValue);
+
+			record = WriteAheadLog.logUpdate(strTableName, strClusteringKeyValue, htblColNameValue);
+		}
+
+		commit(record);
 	}
 
 	// following method could be used to delete one or more rows.
@@ -165,70 +274,118 @@ public class DBApp {
 	public void deleteFromTable(String strTableName,
 			Hashtable<String, Object> htblColNameValue) throws DBAppException {
 
-		Table t = new Table(strTableName);
-		try {
-			t.deleteTuple(htblColNameValue);
-		} catch (Exception ex) {
-			throw new DBAppException(ex.getMessage());
+		long record;
+
+		synchronized (WriteAheadLog.class) {
+			Table t = Catalog.getTable(strTableName);
+			try {
+				t.deleteTuple(htblColNameValue);
+			} catch (Exception ex) {
+				throw new DBAppException(ex.getMessage());
+			}
+
+			record = WriteAheadLog.logDelete(strTableName, htblColNameValue);
 		}
+
+		commit(record);
 	}
 
 	public boolean validateInputTypes(Object object, String expectedType) {
 		return (object.getClass().getName()).equalsIgnoreCase(expectedType);
 	}
 
+	// the rows one term selects. selectFromTable no longer goes through this,
+	// it is kept for callers of the earlier API
+	@Deprecated
 	public Vector<Tuple> evaluateSqlTerm(Table table, SQLTerm sqlTerm) throws DBAppException {
+		validateSqlTerm(table, sqlTerm);
+
+		Vector<Object> postfix = new Vector<>();
+		postfix.add(sqlTerm);
+		Vector<Tuple> result = new Vector<>();
+		try (TupleIterator rows = new QueryPlanner(table).execute(postfix)) {
+			while (rows.hasNext())
+				result.add(rows.next());
+		}
+		return result;
+	}
+
+	void validateSqlTerm(Table table, SQLTerm sqlTerm) throws DBAppException {
 		int columnIndex = table.getIndexOfColumn(sqlTerm._strColumnName);
 
 		if (columnIndex < 0)
 			throw new DBAppException("Column does not exist");
 
-		String columnName = sqlTerm._strColumnName; // column name in condition
-		String operator = sqlTerm._strOperator; // operator in sqlTerm
-
+		String operator = sqlTerm._strOperator;
 		if (!(operator.equals(">") || operator.equals(">=") ||
 				operator.equals("<") || operator.equals("<=") ||
 				operator.equals("!=") || operator.equals("=")))
 			throw new DBAppException("Unsupported Operator!");
 
-		Comparable<Object> value = (Comparable<Object>) sqlTerm._objValue; // value of column we're searching with
-		if (!validateInputTypes(value, table.getColumnDataType(columnName)))
+		if (!validateInputTypes(sqlTerm._objValue, table.getColumnDataType(sqlTerm._strColumnName)))
 			throw new DBAppException("Column type mismatch");
-
-		return table.selectFromTable(columnName, operator, value);
 	}
 
+	// term results are combined on sets of their clustering keys, each a hash
+	// lookup, rather than by comparing and hashing whole tuples, so combining
+	// two results takes time and memory linear in their sizes. a row in a
+	// result more than once is kept once. selectFromTable merges the row
+	// streams of the terms instead, this is kept for callers of the earlier API
+	@Deprecated
 	public SQLTerm doOperation(Table table, SQLTerm term1, SQLTerm term2, String operator) throws DBAppException {
+		int clusteringIndex = table.getIndexOfColumn(table.getClusteringColumn());
+		Vector<Tuple> x = term1.result;
+		Vector<Tuple> y = term2.result;
 		Vector<Tuple> results = new Vector<>();
 
 		if (operator.equalsIgnoreCase("or")) {
-			results.addAll(term1.result);
-			results.addAll(term2.result);
+			HashSet<Object> keys = new HashSet<>();
+			for (Vector<Tuple> tuples : Arrays.asList(x, y)) {
+				for (Tuple tuple : tuples) {
+					if (keys.add(tuple.getRecord(clusteringIndex)))
+						results.add(tuple);
+				}
+			}
 		} else if (operator.equalsIgnoreCase("and")) {
-			Vector<Tuple> result1 = term1.result;
-			Vector<Tuple> result2 = term2.result;
-			results.addAll(result1);
-			results.retainAll(result2);
+			// the keys of the smaller side are looked up while going through
+			// the larger one, whose order the rows keep
+			Vector<Tuple> smaller = x.size() <= y.size() ? x : y;
+			HashSet<Object> keys = clusteringKeys(smaller, clusteringIndex);
+			for (Tuple tuple : smaller == x ? y : x) {
+				if (keys.remove(tuple.getRecord(clusteringIndex)))
+					results.add(tuple);
+			}
 		} else {
-			// (x-y) or (y-x)
-			Vector<Tuple> x = term1.result;
-			Vector<Tuple> y = term2.result;
-
-			Vector<Tuple> xy = (Vector<Tuple>) x.clone();
-			Vector<Tuple> yx = (Vector<Tuple>) y.clone();
-
-			xy.removeAll(y);
-			yx.removeAll(x);
-
-			results.addAll(xy);
-			results.addAll(yx);
+			// (x-y) or (y-x). a key is taken out of its own set once its row
+			// is added, which only happens for keys the other side lacks
+			HashSet<Object> xKeys = clusteringKeys(x, clusteringIndex);
+			HashSet<Object> yKeys = clusteringKeys(y, clusteringIndex);
+			for (Tuple tuple : x) {
+				Object key = tuple.getRecord(clusteringIndex);
+				if (!yKeys.contains(key) && xKeys.remove(key))
+					results.add(tuple);
+			}
+			for (Tuple tuple : y) {
+				Object key = tuple.getRecord(clusteringIndex);
+				if (!xKeys.contains(key) && yKeys.remove(key))
+					results.add(tuple);
+			}
 		}
 
-		Set<Tuple> noDups = new HashSet<>(results);
-		return new SQLTerm(new Vector<>(noDups), term1, term2, operator);
+		return new SQLTerm(results, term1, term2, operator);
+	}
+
+	private static HashSet<Object> clusteringKeys(Vector<Tuple> tuples, int clusteringIndex) {
+		HashSet<Object> keys = new HashSet<>(tuples.size() * 4 / 3 + 1);
+		for (Tuple tuple : tuples)
+			keys.add(tuple.getRecord(clusteringIndex));
+		return keys;
 	}
 
-	public Iterator selectFromTable(SQLTerm[] arrSQLTerms,
+	// the rows come through a TupleIterator, an Iterator that is also
+	// AutoCloseable. one that is not read to the end has to be closed, as it
+	// may keep a scan thread reading ahead for it
+	public TupleIterator selectFromTable(SQLTerm[] arrSQLTerms,
 			String[] strarrOperators) throws DBAppException {
 
 		for (String op : strarrOperators) {
@@ -242,7 +399,7 @@ public class DBApp {
 		if (arrSQLTerms.length != strarrOperators.length + 1)
 			throw new DBAppException("Invalid query");
 
-		Table table = new Table(arrSQLTerms[0]._strTableName);
+		Table table = Catalog.getTable(arrSQLTerms[0]._strTableName);
 
 		Vector<Object> infix = new Vector<>();
 		infix.add(arrSQLTerms[0]);
@@ -253,27 +410,14 @@ public class DBApp {
 
 		Vector<Object> postfix = PostfixConverter.infixToPostfix(infix);
 
-		Stack<SQLTerm> resultSets = new Stack<>(); // results for sql term
-
-		for (Object object : postfix) {
-			if (object instanceof SQLTerm) {
-				SQLTerm term = (SQLTerm) object;
-				term.result = evaluateSqlTerm(table, term);
-				resultSets.push(term);
-			} else {
-				String operator = (String) object;
-
-				SQLTerm term1 = resultSets.pop();
-				SQLTerm term2 = resultSets.pop();
-
-				resultSets.push(doOperation(table, term1, term2, operator));
-
-			}
-		}
+		for (SQLTerm term : arrSQLTerms)
+			validateSqlTerm(table, term);
 
-		Vector<Tuple> result = resultSets.pop().result;
-		Collections.sort(result);
-		return result.iterator();
+		// the planner picks how every part of the condition is read, see
+		// QueryPlanner. the rows come in clustering key order as their pages
+		// are read. they are copies taken as their pages are read, the caller
+		// may change them
+		return new QueryPlanner(table).execute(postfix);
 	}
 
 	public static void main(String[] args) {
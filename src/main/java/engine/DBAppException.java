@@ -8,4 +8,8 @@ public class DBAppException extends Exception {
 		super(strMessage);
 	}
 
+	public DBAppException(String strMessage, Throwable cause) {
+		super(strMessage, cause);
+	}
+
 }
\ No newline at end of file
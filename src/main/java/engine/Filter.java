@@ -0,0 +1,235 @@
+package engine;
+
+import java.util.List;
+
+// A condition checked on tuples one at a time, built by the query planner
+// from the terms of a select: the terms a plan does not read through an
+// index or the clustering ranges are checked on the tuples it did read, and
+// a scan checks the whole condition. A filter can also tell from a page's
+// zone map that no tuple of the page matches, so the page is not read.
+public abstract class Filter {
+    public abstract boolean matches(Tuple tuple);
+
+    // false only if no tuple of a page with this zone map matches
+    public boolean mightMatch(ZoneMap zoneMap) {
+        return true;
+    }
+
+    // a filter on a single column, which can also tell whether a value of
+    // that column matches, used where a column is read without its tuples
+    public abstract static class ColumnFilter extends Filter {
+        public abstract boolean matchesValue(Object value);
+    }
+
+    // column operator value, for an operator SQLTerm allows. the comparison
+    // is compiled for the type of value, which is that of the column
+    public static ColumnFilter compare(int column, String operator, Comparable<?> value) {
+        int accepted = accepted(operator);
+        if (value instanceof Integer)
+            return new IntComparison(column, operator, accepted, (Integer) value);
+        if (value instanceof Double)
+            return new DoubleComparison(column, operator, accepted, (Double) value);
+        return new StringComparison(column, operator, accepted, (String) value);
+    }
+
+    // the signs of column value - value the operator accepts, bit 0 for
+    // less, bit 1 for equal and bit 2 for greater
+    private static int accepted(String operator) {
+        switch (operator) {
+            case "<":
+                return 0b001;
+            case "<=":
+                return 0b011;
+            case "=":
+                return 0b010;
+            case ">=":
+                return 0b110;
+            case ">":
+                return 0b100;
+            case "!=":
+                return 0b101;
+        }
+        throw new IllegalArgumentException("Unsupported operator " + operator);
+    }
+
+    public static Filter and(List<Filter> filters) {
+        return filters.size() == 1 ? filters.get(0) : new And(filters.toArray(new Filter[0]));
+    }
+
+    // filters all on the same column
+    public static ColumnFilter columnAnd(List<ColumnFilter> filters) {
+        return filters.size() == 1 ? filters.get(0) : new ColumnAnd(filters.toArray(new ColumnFilter[0]));
+    }
+
+    public static Filter or(Filter left, Filter right) {
+        return new Or(left, right);
+    }
+
+    public static Filter xor(Filter left, Filter right) {
+        return new Xor(left, right);
+    }
+
+    // a comparison reads the column straight from the tuple without boxing
+    // and tells a match from the sign of the difference, so checking a tuple
+    // takes no lookup of the column or the operator
+    private abstract static class Comparison extends ColumnFilter {
+        final int column;
+        private final String operator;
+        private final Comparable<?> value;
+        private final int accepted;
+
+        Comparison(int column, String operator, int accepted, Comparable<?> value) {
+            this.column = column;
+            this.operator = operator;
+            this.accepted = accepted;
+            this.value = value;
+        }
+
+        // diff is -1, 0 or 1
+        final boolean accepts(int diff) {
+            return (accepted >> (diff + 1) & 1) != 0;
+        }
+
+        public boolean mightMatch(ZoneMap zoneMap) {
+            return zoneMap.mightSatisfy(column, operator, value);
+        }
+    }
+
+    private static final class IntComparison extends Comparison {
+        private final int value;
+
+        IntComparison(int column, String operator, int accepted, int value) {
+            super(column, operator, accepted, value);
+            this.value = value;
+        }
+
+        public boolean matches(Tuple tuple) {
+            return accepts(Integer.compare(tuple.getInt(column), value));
+        }
+
+        public boolean matchesValue(Object value) {
+            return accepts(Integer.compare((Integer) value, this.value));
+        }
+    }
+
+    private static final class DoubleComparison extends Comparison {
+        private final double value;
+
+        DoubleComparison(int column, String operator, int accepted, double value) {
+            super(column, operator, accepted, value);
+            this.value = value;
+        }
+
+        public boolean matches(Tuple tuple) {
+            return accepts(Double.compare(tuple.getDouble(column), value));
+        }
+
+        public boolean matchesValue(Object value) {
+            return accepts(Double.compare((Double) value, this.value));
+        }
+    }
+
+    private static final class StringComparison extends Comparison {
+        private final String value;
+
+        StringComparison(int column, String operator, int accepted, String value) {
+            super(column, operator, accepted, value);
+            this.value = value;
+        }
+
+        public boolean matches(Tuple tuple) {
+            return accepts(Integer.signum(tuple.getString(column).compareTo(value)));
+        }
+
+        public boolean matchesValue(Object value) {
+            return accepts(Integer.signum(((String) value).compareTo(this.value)));
+        }
+    }
+
+    private static class And extends Filter {
+        private final Filter[] filters;
+
+        private And(Filter[] filters) {
+            this.filters = filters;
+        }
+
+        public boolean matches(Tuple tuple) {
+            for (Filter filter : filters) {
+                if (!filter.matches(tuple))
+                    return false;
+            }
+            return true;
+        }
+
+        public boolean mightMatch(ZoneMap zoneMap) {
+            for (Filter filter : filters) {
+                if (!filter.mightMatch(zoneMap))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class ColumnAnd extends ColumnFilter {
+        private final ColumnFilter[] filters;
+        private final And and;
+
+        private ColumnAnd(ColumnFilter[] filters) {
+            this.filters = filters;
+            this.and = new And(filters);
+        }
+
+        public boolean matches(Tuple tuple) {
+            return and.matches(tuple);
+        }
+
+        public boolean mightMatch(ZoneMap zoneMap) {
+            return and.mightMatch(zoneMap);
+        }
+
+        public boolean matchesValue(Object value) {
+            for (ColumnFilter filter : filters) {
+                if (!filter.matchesValue(value))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static class Or extends Filter {
+        private final Filter left;
+        private final Filter right;
+
+        private Or(Filter left, Filter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        public boolean matches(Tuple tuple) {
+            return left.matches(tuple) || right.matches(tuple);
+        }
+
+        public boolean mightMatch(ZoneMap zoneMap) {
+            return left.mightMatch(zoneMap) || right.mightMatch(zoneMap);
+        }
+    }
+
+    private static class Xor extends Filter {
+        private final Filter left;
+        private final Filter right;
+
+        private Xor(Filter left, Filter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        public boolean matches(Tuple tuple) {
+            return left.matches(tuple) != right.matches(tuple);
+        }
+
+        // a tuple matches one side or the other
+        public boolean mightMatch(ZoneMap zoneMap) {
+            return left.mightMatch(zoneMap) || right.mightMatch(zoneMap);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package engine;
+
+import java.util.Arrays;
+
+// Pure java implementation of the LZ4 block format: a sequence is a token
+// (literal length in the high nibble, match length - 4 in the low nibble),
+// optional length extension bytes, the literals and a 2 byte little endian
+// match offset. Matches are found through a single hash table of 4 byte
+// sequences, trading ratio for speed like the reference fast compressor.
+public class LZ4Codec extends Codec {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    public byte getId() {
+        return 1;
+    }
+
+    public String getName() {
+        return "lz4";
+    }
+
+    private static int readInt(byte[] data, int i) {
+        return (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | (data[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    protected byte[] encode(byte[] source) {
+        int length = source.length;
+        byte[] destination = new byte[length + length / 255 + 16];
+        int[] table = new int[1 << HASH_LOG]; // position + 1, 0 means empty
+
+        int anchor = 0;
+        int in = 0;
+        int out = 0;
+        int limit = length - MATCH_FIND_LIMIT;
+
+        while (in < limit) {
+            int sequence = readInt(source, in);
+            int h = hash(sequence);
+            int reference = table[h] - 1;
+            table[h] = in + 1;
+
+            if (reference < 0 || in - reference > MAX_OFFSET || readInt(source, reference) != sequence) {
+                // step faster through data that does not compress
+                in += 1 + ((in - anchor) >>> SKIP_TRIGGER);
+                continue;
+            }
+
+            while (in > anchor && reference > 0 && source[in - 1] == source[reference - 1]) {
+                in--;
+                reference--;
+            }
+
+            int matchLength = MIN_MATCH;
+            int maxMatch = length - LAST_LITERALS - in;
+            while (matchLength < maxMatch && source[in + matchLength] == source[reference + matchLength])
+                matchLength++;
+
+            out = writeSequence(source, anchor, in - anchor, destination, out, in - reference, matchLength);
+            in += matchLength;
+            anchor = in;
+        }
+
+        out = writeSequence(source, anchor, length - anchor, destination, out, 0, 0);
+        return Arrays.copyOf(destination, out);
+    }
+
+    // a match length of 0 marks the last sequence, which only has literals
+    private static int writeSequence(byte[] source, int literalStart, int literalLength, byte[] destination,
+            int out, int offset, int matchLength) {
+        int token = out++;
+        int literalNibble = Math.min(literalLength, 15);
+        int matchNibble = matchLength == 0 ? 0 : Math.min(matchLength - MIN_MATCH, 15);
+        destination[token] = (byte) (literalNibble << 4 | matchNibble);
+
+        if (literalNibble == 15)
+            out = writeLength(destination, out, literalLength - 15);
+
+        System.arraycopy(source, literalStart, destination, out, literalLength);
+        out += literalLength;
+
+        if (matchLength == 0)
+            return out;
+
+        destination[out++] = (byte) offset;
+        destination[out++] = (byte) (offset >>> 8);
+
+        if (matchNibble == 15)
+            out = writeLength(destination, out, matchLength - MIN_MATCH - 15);
+
+        return out;
+    }
+
+    private static int writeLength(byte[] destination, int out, int length) {
+        while (length >= 255) {
+            destination[out++] = (byte) 255;
+            length -= 255;
+        }
+        destination[out++] = (byte) length;
+        return out;
+    }
+
+    protected void decode(byte[] source, byte[] destination) {
+        int in = 0;
+        int out = 0;
+
+        while (in < source.length) {
+            int token = source[in++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    b = source[in++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+
+            System.arraycopy(source, in, destination, out, literalLength);
+            in += literalLength;
+            out += literalLength;
+
+            if (in >= source.length)
+                break;
+
+            int offset = (source[in] & 0xFF) | (source[in + 1] & 0xFF) << 8;
+            in += 2;
+
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = source[in++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            int reference = out - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(destination, reference, destination, out, matchLength);
+                out += matchLength;
+            } else {
+                // overlapping match, copied byte by byte to repeat the pattern
+                for (int i = 0; i < matchLength; i++)
+                    destination[out++] = destination[reference + i];
+            }
+        }
+
+        if (out != destination.length)
+            throw new IllegalStateException("Decoded " + out + " bytes, expected " + destination.length);
+    }
+}
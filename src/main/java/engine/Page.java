@@ -8,6 +8,7 @@ import java.util.Vector;
 import java.util.stream.Collectors;
 
 public class Page implements Serializable {
+    private static final long serialVersionUID = -3555120781661915686L;
     public static int maxRowCount;
     private final Vector<Tuple> tuples;
     private int clusteringIndex;
@@ -19,10 +20,20 @@ public class Page implements Serializable {
         this.pageIndex = pageIndex;
     }
 
+    Page(int clusteringIndex, int pageIndex, Vector<Tuple> tuples) {
+        this.tuples = tuples;
+        this.clusteringIndex = clusteringIndex;
+        this.pageIndex = pageIndex;
+    }
+
     public int getPageIndex() {
         return pageIndex;
     }
 
+    public int getClusteringIndex() {
+        return clusteringIndex;
+    }
+
     public Object getMin() {
         return tuples.getFirst().getRecord(clusteringIndex);
     }
@@ -44,10 +55,10 @@ public class Page implements Serializable {
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    public boolean shouldDelete(Hashtable<String, Object> records, Tuple p, Hashtable<String, String> columns) {
+    public boolean shouldDelete(Hashtable<String, Object> records, Tuple p, Hashtable<String, Integer> ordinals) {
 
         for (Map.Entry<String, Object> entry : records.entrySet()) {
-            int x = Table.getIndexOfColumn(entry.getKey(), columns);
+            int x = Table.getIndexOfColumn(entry.getKey(), ordinals);
             Object o = entry.getValue();
             if (!(((Comparable) p.getRecord(x)).compareTo(o) == 0)) {
                 return false;
@@ -57,8 +68,9 @@ public class Page implements Serializable {
         return true;
     }
 
-    public int deleteHelper(Hashtable<String, Object> records, Hashtable<String, String> columns,
-            Hashtable<String, String> indices, boolean clustering, String clusteringname) throws DBAppException {
+    public int deleteHelper(Hashtable<String, Object> records, Hashtable<String, Integer> ordinals,
+            Hashtable<String, String> indices, boolean clustering, String clusteringname, TableFile file)
+            throws DBAppException {
         Vector<Tuple> deletedTuples = new Vector<>();
         boolean flag = true;
         if (clustering == true) {
@@ -67,17 +79,17 @@ public class Page implements Serializable {
             if (index < 0)
                 return tuples.size();
             Tuple p = tuples.get(index);
-            flag = shouldDelete(records, p, columns);
+            flag = shouldDelete(records, p, ordinals);
             if (flag == true) {
-                tuples.remove(tuples.get(index));
-                deletedTuples.add(t);
+                tuples.remove(index);
+                deletedTuples.add(p);
 
             }
 
         } else {
             for (int i = 0; i < tuples.size(); i++) {
                 Tuple t = tuples.get(i);
-                flag = shouldDelete(records, t, columns);
+                flag = shouldDelete(records, t, ordinals);
                 if (flag == true) {
                     deletedTuples.add(t);
 
@@ -85,18 +97,10 @@ public class Page implements Serializable {
             }
             tuples.removeAll(deletedTuples);
         }
-        Table.updateIndex(indices, deletedTuples, this.pageIndex, columns);
+        Table.updateIndex(indices, deletedTuples, clusteringIndex, ordinals, file);
         return tuples.size();
     }
 
-    public String getPagePath(String tableName) {
-        return "Tables\\" + tableName + "\\" + tableName + pageIndex + ".class";
-    }
-
-    public static String getPagePath(String tableName, int pageIndex) {
-        return "Tables\\" + tableName + "\\" + tableName + pageIndex + ".class";
-    }
-
     public void insert(Tuple t) throws DBAppException {
         int index = Collections.binarySearch(tuples, t);
         if (index >= 0)
@@ -0,0 +1,367 @@
+package engine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Vector;
+
+// Binary layout of a page file, written and read without reflection.
+//
+// header (16 bytes + one type byte per column)
+//   short magic          0x5047 ("PG")
+//   byte  version
+//   byte  layout         ROW_LAYOUT or PAX_LAYOUT
+//   int   pageIndex
+//   short clusteringIndex
+//   short columnCount
+//   int   tupleCount
+//   byte  type[columnCount]
+//
+// row layout
+//   int   offset[tupleCount]   slot directory, start of each record from the start of the page
+//   records, one after the other
+// pax layout
+//   int   offset[columnCount]  start of each column minipage from the start of the page
+//   minipages, one per column holding that column for every tuple. string
+//   minipages start with int end[tupleCount] followed by the string bytes
+//
+// Integer -> 4 bytes, Double -> 8 bytes, String -> UTF-8 bytes, prefixed with an
+// int length in row records. version 1 pages prefixed it with an unsigned
+// short and are still read
+//
+// Pages written by older versions were plain java serialization of Page, which
+// always starts with 0xACED, so both formats can live in the same Tables folder.
+public class PageFormat {
+    public static final short MAGIC = 0x5047;
+    public static final byte VERSION = 2;
+    private static final byte SHORT_LENGTH_VERSION = 1;
+
+    public static final byte ROW_LAYOUT = 0;
+    public static final byte PAX_LAYOUT = 1;
+
+    public static final byte TYPE_INTEGER = 1;
+    public static final byte TYPE_DOUBLE = 2;
+    public static final byte TYPE_STRING = 3;
+
+    private static final short JAVA_SERIALIZATION_MAGIC = (short) 0xACED;
+    private static final int HEADER_SIZE = 16;
+
+    public static boolean isLegacy(byte[] data) {
+        return data.length >= 2 && (short) ((data[0] << 8) | (data[1] & 0xFF)) == JAVA_SERIALIZATION_MAGIC;
+    }
+
+    public static byte typeOf(Object value) throws DBAppException {
+        if (value instanceof Integer)
+            return TYPE_INTEGER;
+        if (value instanceof Double)
+            return TYPE_DOUBLE;
+        if (value instanceof String)
+            return TYPE_STRING;
+
+        throw new DBAppException("Unsupported Column Type");
+    }
+
+    // the type of a column declared as java.lang.Integer, Double or String
+    public static byte typeOfColumn(String columnType) throws DBAppException {
+        if (columnType.equalsIgnoreCase("java.lang.integer"))
+            return TYPE_INTEGER;
+        if (columnType.equalsIgnoreCase("java.lang.double"))
+            return TYPE_DOUBLE;
+        if (columnType.equalsIgnoreCase("java.lang.string"))
+            return TYPE_STRING;
+
+        throw new DBAppException("Unsupported Column Type");
+    }
+
+    public static byte layoutOf(String layout) throws DBAppException {
+        if (layout == null || layout.equalsIgnoreCase("row"))
+            return ROW_LAYOUT;
+        if (layout.equalsIgnoreCase("pax"))
+            return PAX_LAYOUT;
+
+        throw new DBAppException("Unsupported page layout");
+    }
+
+    public static byte[] encode(Page page) throws DBAppException {
+        return encode(page, ROW_LAYOUT);
+    }
+
+    public static byte[] encode(Page page, byte layout) throws DBAppException {
+        Vector<Tuple> tuples = page.getTuples();
+        RowFormat format = tuples.isEmpty() ? null : tuples.getFirst().getFormat();
+        int columnCount = format == null ? 0 : format.getColumnCount();
+
+        byte[] types = new byte[columnCount];
+        for (int column = 0; column < columnCount; column++)
+            types[column] = format.getType(column);
+
+        // strings are encoded once here and reused when the values are written
+        byte[][][] strings = new byte[tuples.size()][][];
+        int size = HEADER_SIZE + columnCount + 4 * (layout == PAX_LAYOUT ? columnCount : tuples.size());
+        for (int slot = 0; slot < tuples.size(); slot++) {
+            Tuple tuple = tuples.get(slot);
+            strings[slot] = new byte[columnCount][];
+            for (int column = 0; column < columnCount; column++) {
+                switch (types[column]) {
+                    case TYPE_INTEGER:
+                        size += 4;
+                        break;
+                    case TYPE_DOUBLE:
+                        size += 8;
+                        break;
+                    default:
+                        byte[] bytes = tuple.getString(column).getBytes(StandardCharsets.UTF_8);
+                        strings[slot][column] = bytes;
+                        size += 4 + bytes.length;
+                }
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putShort(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(layout);
+        buffer.putInt(page.getPageIndex());
+        buffer.putShort((short) page.getClusteringIndex());
+        buffer.putShort((short) columnCount);
+        buffer.putInt(tuples.size());
+        buffer.put(types);
+
+        if (layout == PAX_LAYOUT)
+            writeColumns(buffer, tuples, types, strings);
+        else
+            writeRecords(buffer, tuples, types, strings);
+
+        return buffer.array();
+    }
+
+    private static void writeRecords(ByteBuffer buffer, Vector<Tuple> tuples, byte[] types, byte[][][] strings) {
+        int slotDirectory = buffer.position();
+        buffer.position(slotDirectory + 4 * tuples.size());
+
+        for (int slot = 0; slot < tuples.size(); slot++) {
+            buffer.putInt(slotDirectory + 4 * slot, buffer.position());
+
+            Tuple tuple = tuples.get(slot);
+            for (int column = 0; column < types.length; column++) {
+                switch (types[column]) {
+                    case TYPE_INTEGER:
+                        buffer.putInt(tuple.getInt(column));
+                        break;
+                    case TYPE_DOUBLE:
+                        buffer.putDouble(tuple.getDouble(column));
+                        break;
+                    default:
+                        buffer.putInt(strings[slot][column].length);
+                        buffer.put(strings[slot][column]);
+                }
+            }
+        }
+    }
+
+    private static void writeColumns(ByteBuffer buffer, Vector<Tuple> tuples, byte[] types, byte[][][] strings) {
+        int minipageDirectory = buffer.position();
+        buffer.position(minipageDirectory + 4 * types.length);
+
+        for (int column = 0; column < types.length; column++) {
+            buffer.putInt(minipageDirectory + 4 * column, buffer.position());
+
+            switch (types[column]) {
+                case TYPE_INTEGER:
+                    for (Tuple tuple : tuples)
+                        buffer.putInt(tuple.getInt(column));
+                    break;
+                case TYPE_DOUBLE:
+                    for (Tuple tuple : tuples)
+                        buffer.putDouble(tuple.getDouble(column));
+                    break;
+                default:
+                    int end = 0;
+                    for (int slot = 0; slot < tuples.size(); slot++) {
+                        end += strings[slot][column].length;
+                        buffer.putInt(end);
+                    }
+                    for (int slot = 0; slot < tuples.size(); slot++)
+                        buffer.put(strings[slot][column]);
+            }
+        }
+    }
+
+    public static Page decode(ByteBuffer buffer) throws DBAppException {
+        int start = buffer.position();
+        if (buffer.getShort(start) != MAGIC)
+            throw new DBAppException("Not a page file");
+
+        byte version = buffer.get(start + 2);
+        if (version != VERSION && version != SHORT_LENGTH_VERSION)
+            throw new DBAppException("Unsupported page format version " + version);
+
+        int pageIndex = buffer.getInt(start + 4);
+        int clusteringIndex = buffer.getShort(start + 8);
+        int tupleCount = buffer.getInt(start + 12);
+        byte[] types = readTypes(buffer);
+
+        RowFormat format = RowFormat.of(types, clusteringIndex);
+        Vector<Tuple> tuples = new Vector<>(Math.max(tupleCount, Page.maxRowCount + 1));
+        for (int slot = 0; slot < tupleCount; slot++)
+            tuples.add(new Tuple(format));
+
+        if (layout(buffer) == PAX_LAYOUT) {
+            int directory = start + HEADER_SIZE + types.length;
+            for (int column = 0; column < types.length; column++) {
+                int minipage = start + buffer.getInt(directory + 4 * column);
+                for (int slot = 0; slot < tupleCount; slot++)
+                    readPaxValue(buffer, minipage, types[column], tupleCount, slot, tuples.get(slot), column);
+            }
+        } else {
+            for (int slot = 0; slot < tupleCount; slot++)
+                readRecord(buffer, types, slot, tuples.get(slot));
+        }
+
+        return new Page(clusteringIndex, pageIndex, tuples);
+    }
+
+    public static byte layout(ByteBuffer buffer) {
+        return buffer.get(buffer.position() + 3);
+    }
+
+    public static int tupleCount(ByteBuffer buffer) {
+        return buffer.getInt(buffer.position() + 12);
+    }
+
+    private static byte[] readTypes(ByteBuffer buffer) {
+        int start = buffer.position();
+        byte[] types = new byte[buffer.getShort(start + 10)];
+        buffer.get(start + HEADER_SIZE, types);
+        return types;
+    }
+
+    // reads a single record without decoding the rest of the page, through the
+    // slot directory for row pages or by indexing every minipage for pax pages
+    public static Tuple decodeTuple(ByteBuffer buffer, int slot) {
+        byte[] types = readTypes(buffer);
+        Tuple tuple = new Tuple(RowFormat.of(types, buffer.getShort(buffer.position() + 8)));
+
+        if (layout(buffer) == PAX_LAYOUT) {
+            int directory = buffer.position() + HEADER_SIZE + types.length;
+            int tupleCount = tupleCount(buffer);
+            for (int column = 0; column < types.length; column++) {
+                int minipage = buffer.position() + buffer.getInt(directory + 4 * column);
+                readPaxValue(buffer, minipage, types[column], tupleCount, slot, tuple, column);
+            }
+        } else {
+            readRecord(buffer, types, slot, tuple);
+        }
+
+        return tuple;
+    }
+
+    // bytes before a string in a row record that hold its length
+    private static int lengthSize(ByteBuffer buffer) {
+        return buffer.get(buffer.position() + 2) == SHORT_LENGTH_VERSION ? 2 : 4;
+    }
+
+    private static int stringLength(ByteBuffer buffer, int offset, int lengthSize) {
+        return lengthSize == 2 ? Short.toUnsignedInt(buffer.getShort(offset)) : buffer.getInt(offset);
+    }
+
+    private static void readRecord(ByteBuffer buffer, byte[] types, int slot, Tuple tuple) {
+        int start = buffer.position();
+        int lengthSize = lengthSize(buffer);
+        int offset = start + buffer.getInt(start + HEADER_SIZE + types.length + 4 * slot);
+        for (int column = 0; column < types.length; column++) {
+            switch (types[column]) {
+                case TYPE_INTEGER:
+                    tuple.setInt(column, buffer.getInt(offset));
+                    break;
+                case TYPE_DOUBLE:
+                    tuple.setDouble(column, buffer.getDouble(offset));
+                    break;
+                default:
+                    tuple.setString(column, readString(buffer, offset + lengthSize,
+                            stringLength(buffer, offset, lengthSize)));
+            }
+            offset += rowValueSize(buffer, offset, types[column], lengthSize);
+        }
+    }
+
+    // decodes one column for every tuple of the page, other columns are not
+    // touched on pax pages
+    public static Comparable<?>[] readColumn(ByteBuffer buffer, int column) {
+        int start = buffer.position();
+        int tupleCount = tupleCount(buffer);
+        byte[] types = readTypes(buffer);
+        int directory = start + HEADER_SIZE + types.length;
+
+        Comparable<?>[] values = new Comparable<?>[tupleCount];
+        if (layout(buffer) == PAX_LAYOUT) {
+            int minipage = start + buffer.getInt(directory + 4 * column);
+            for (int slot = 0; slot < tupleCount; slot++)
+                values[slot] = readPaxValue(buffer, minipage, types[column], tupleCount, slot);
+        } else {
+            int lengthSize = lengthSize(buffer);
+            for (int slot = 0; slot < tupleCount; slot++) {
+                int offset = start + buffer.getInt(directory + 4 * slot);
+                for (int i = 0; i < column; i++)
+                    offset += rowValueSize(buffer, offset, types[i], lengthSize);
+                values[slot] = readRowValue(buffer, offset, types[column], lengthSize);
+            }
+        }
+
+        return values;
+    }
+
+    private static Comparable<?> readRowValue(ByteBuffer buffer, int offset, byte type, int lengthSize) {
+        switch (type) {
+            case TYPE_INTEGER:
+                return buffer.getInt(offset);
+            case TYPE_DOUBLE:
+                return buffer.getDouble(offset);
+            default:
+                return readString(buffer, offset + lengthSize, stringLength(buffer, offset, lengthSize));
+        }
+    }
+
+    private static int rowValueSize(ByteBuffer buffer, int offset, byte type, int lengthSize) {
+        switch (type) {
+            case TYPE_INTEGER:
+                return 4;
+            case TYPE_DOUBLE:
+                return 8;
+            default:
+                return lengthSize + stringLength(buffer, offset, lengthSize);
+        }
+    }
+
+    private static Comparable<?> readPaxValue(ByteBuffer buffer, int minipage, byte type, int tupleCount, int slot) {
+        switch (type) {
+            case TYPE_INTEGER:
+                return buffer.getInt(minipage + 4 * slot);
+            case TYPE_DOUBLE:
+                return buffer.getDouble(minipage + 8 * slot);
+            default:
+                int begin = slot == 0 ? 0 : buffer.getInt(minipage + 4 * (slot - 1));
+                int end = buffer.getInt(minipage + 4 * slot);
+                return readString(buffer, minipage + 4 * tupleCount + begin, end - begin);
+        }
+    }
+
+    private static void readPaxValue(ByteBuffer buffer, int minipage, byte type, int tupleCount, int slot,
+            Tuple tuple, int column) {
+        switch (type) {
+            case TYPE_INTEGER:
+                tuple.setInt(column, buffer.getInt(minipage + 4 * slot));
+                break;
+            case TYPE_DOUBLE:
+                tuple.setDouble(column, buffer.getDouble(minipage + 8 * slot));
+                break;
+            default:
+                tuple.setString(column, (String) readPaxValue(buffer, minipage, type, tupleCount, slot));
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,294 @@
+package engine;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+// Splits the pages of a scan across the threads of a fork/join pool. Each
+// task reads a run of consecutive pages into a list of its own, and the
+// lists are joined in page order, which is clustering key order, so the
+// result is the same as reading the pages one after the other. Only reads
+// run on the pool: the pages a delete changes are still changed one at a
+// time by the thread that asked.
+//
+// Pool threads that find a page outside the buffer pool decode it from the
+// table file themselves rather than bringing it in. The buffer pool decodes
+// under one lock, which would make the threads of a scan wait for each
+// other, and one large scan would push every other page out of it.
+public class ParallelScan {
+    // threads a scan is split across, 1 scans on the calling thread alone
+    public static int parallelism = 1;
+
+    // pages per task below which a task is not worth its overhead
+    private static final int MIN_PAGES_PER_TASK = 4;
+
+    // rows read ahead are handed over this many at a time, and at most this
+    // many batches wait to be taken
+    private static final int ROWS_PER_BATCH = 256;
+    private static final int QUEUED_BATCHES = 4;
+
+    // how long a read ahead waits on a full queue before it checks whether
+    // its reader is still there
+    private static final long READER_CHECK_MILLIS = 1000;
+
+    private static ForkJoinPool pool;
+
+    // adds the tuples of a page the scan keeps to tuples, in order
+    interface PageReader {
+        void read(int pageIndex, List<Tuple> tuples) throws DBAppException;
+    }
+
+    interface Source {
+        TupleIterator open() throws DBAppException;
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null || pool.getParallelism() != parallelism) {
+            if (pool != null)
+                pool.shutdown();
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    // whether the calling thread is one of the pool's
+    static boolean inPool() {
+        ForkJoinPool current = ForkJoinTask.getPool();
+        return current != null && current == pool;
+    }
+
+    // pages a streaming scan should read at once to keep every thread busy
+    static int batchSize() {
+        return parallelism <= 1 ? 1 : parallelism * MIN_PAGES_PER_TASK;
+    }
+
+    // reads every page of pages with reader and adds their tuples to result
+    // in page order
+    static void scan(List<Integer> pages, PageReader reader, List<Tuple> result) throws DBAppException {
+        int[] pageIndices;
+        synchronized (pages) {
+            pageIndices = new int[pages.size()];
+            for (int i = 0; i < pageIndices.length; i++)
+                pageIndices[i] = pages.get(i);
+        }
+
+        if (parallelism <= 1 || pageIndices.length < 2 * MIN_PAGES_PER_TASK) {
+            for (int pageIndex : pageIndices)
+                reader.read(pageIndex, result);
+            return;
+        }
+
+        int grain = Math.max(MIN_PAGES_PER_TASK, pageIndices.length / (4 * parallelism));
+        try {
+            result.addAll(pool().invoke(new ScanTask(pageIndices, 0, pageIndices.length, grain, reader)));
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        }
+    }
+
+    // the rows of a source opened and read on the pool, while the caller
+    // goes on reading something else. rows are handed over in batches
+    // through a bounded queue, so the first comes as soon as it is read and
+    // the pool stays at most a few batches ahead. without parallelism the
+    // source is just opened.
+    //
+    // the iterator should be closed if it is not read to the end. one that
+    // is dropped instead is only seen to be gone once it is collected, so
+    // until then the task waits on a full queue
+    static TupleIterator ahead(Source source) throws DBAppException {
+        if (parallelism <= 1)
+            return source.open();
+
+        ReadAhead task = new ReadAhead(source);
+        TupleIterator rows = new TupleIterator() {
+            private List<Tuple> rows = Collections.emptyList();
+            private int position;
+
+            protected Tuple advance() throws DBAppException {
+                if (position == rows.size()) {
+                    rows = task.take();
+                    position = 0;
+                }
+                return position < rows.size() ? rows.get(position++) : null;
+            }
+
+            protected void release() {
+                task.cancel();
+                rows = Collections.emptyList();
+            }
+        };
+        task.reader = new WeakReference<>(rows);
+        pool().execute(task);
+        return rows;
+    }
+
+    // the DBAppException a task failed with, if that is what it was
+    private static RuntimeException unwrap(RuntimeException e) throws DBAppException {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DBAppException)
+                throw (DBAppException) cause;
+        }
+        return e;
+    }
+
+    // tasks are serializable as every ForkJoinTask is, but are never
+    // serialized, so what they read through is transient
+    private static class ScanTask extends RecursiveTask<ArrayList<Tuple>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] pageIndices;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final transient PageReader reader;
+
+        ScanTask(int[] pageIndices, int from, int to, int grain, PageReader reader) {
+            this.pageIndices = pageIndices;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.reader = reader;
+        }
+
+        protected ArrayList<Tuple> compute() {
+            if (to - from <= grain) {
+                ArrayList<Tuple> tuples = new ArrayList<>();
+                try {
+                    for (int i = from; i < to; i++)
+                        reader.read(pageIndices[i], tuples);
+                } catch (DBAppException e) {
+                    throw new RuntimeException(e);
+                }
+                return tuples;
+            }
+
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(pageIndices, from, middle, grain, reader);
+            left.fork();
+            ArrayList<Tuple> right = new ScanTask(pageIndices, middle, to, grain, reader).compute();
+            ArrayList<Tuple> tuples = left.join();
+            tuples.addAll(right);
+            return tuples;
+        }
+    }
+
+    // reads a source into batches, put on a queue the reader takes them from.
+    // an empty batch ends the rows. waiting on the queue is managed blocking,
+    // so the pool adds a thread rather than stall when its own are waiting.
+    // a wait to put is given up now and then to see whether the reader was
+    // collected without being closed, which cancels the task
+    private static class ReadAhead extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Source source;
+        private final transient BlockingQueue<List<Tuple>> batches = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+        private transient WeakReference<TupleIterator> reader;
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+
+        ReadAhead(Source source) {
+            this.source = source;
+        }
+
+        protected void compute() {
+            TupleIterator iterator = null;
+            try {
+                iterator = source.open();
+                List<Tuple> batch = new ArrayList<>();
+                while (!cancelled && iterator.hasNext()) {
+                    batch.add(iterator.next());
+                    if (batch.size() == ROWS_PER_BATCH) {
+                        put(batch);
+                        batch = new ArrayList<>();
+                    }
+                }
+                if (!batch.isEmpty())
+                    put(batch);
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                if (iterator != null)
+                    iterator.close();
+            }
+            put(Collections.emptyList());
+        }
+
+        // a cancelled reader takes nothing more, so nothing more is put
+        private void put(List<Tuple> batch) {
+            try {
+                while (!cancelled) {
+                    Blocker<Boolean> blocker = new Blocker<>(
+                            () -> batches.offer(batch, READER_CHECK_MILLIS, TimeUnit.MILLISECONDS));
+                    ForkJoinPool.managedBlock(blocker);
+                    if (blocker.result)
+                        return;
+                    if (reader.get() == null)
+                        cancelled = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+        }
+
+        // the next batch, empty at the end of the rows
+        List<Tuple> take() throws DBAppException {
+            List<Tuple> batch;
+            try {
+                Blocker<List<Tuple>> blocker = new Blocker<>(batches::take);
+                ForkJoinPool.managedBlock(blocker);
+                batch = blocker.result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DBAppException("Interrupted while reading ahead");
+            }
+
+            if (batch.isEmpty() && failure != null) {
+                if (failure instanceof DBAppException)
+                    throw (DBAppException) failure;
+                if (failure instanceof RuntimeException)
+                    throw unwrap((RuntimeException) failure);
+                throw (Error) failure;
+            }
+            return batch;
+        }
+
+        // stops the task; emptying the queue wakes it if it waits to put
+        void cancel() {
+            cancelled = true;
+            batches.clear();
+        }
+    }
+
+    interface Wait<T> {
+        T run() throws InterruptedException;
+    }
+
+    private static class Blocker<T> implements ForkJoinPool.ManagedBlocker {
+        private final Wait<T> wait;
+        private T result;
+        private boolean done;
+
+        Blocker(Wait<T> wait) {
+            this.wait = wait;
+        }
+
+        public boolean block() throws InterruptedException {
+            result = wait.run();
+            done = true;
+            return true;
+        }
+
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+}
@@ -6,7 +6,7 @@ import java.util.Vector;
 public class PostfixConverter {
     
     private static boolean isOperator(String op) {
-        return op.equals("and") || op.equals("or") || op.equals("xor");
+        return precedence(op) > 0;
     }
 
     private static int precedence(String op) {
@@ -0,0 +1,438 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Stack;
+import java.util.Vector;
+
+import BTree.BTreePlus;
+
+// Plans a select before any page of the table is read. The terms and their
+// and/or/xor operators form a tree. Comparisons and-ed on one column are
+// narrowed into a single range first, then every and is driven by its
+// cheapest access path: the rows of that term alone are read and the other
+// terms are checked on them, most selective first. An or or xor whose sides
+// both have an access path combines their rows, and whatever has no cheaper
+// plan is one scan of the table checking the whole condition on each tuple.
+//
+// Costs are in pages read. A range of the clustering column costs the pages
+// it covers, known from the page ranges without reading any. A range of an
+// indexed column costs a page per matching row, counted in the index up to
+// the number of pages, as it is never worth reading more. A scan costs every
+// page. Terms without an access path get the usual textbook selectivities,
+// which only order the filters.
+//
+// Every plan is opened as a TupleIterator that reads pages as its rows are
+// asked for. The rows of every plan come in clustering key order, so a
+// filter keeps the order of its driver and the rows of an or or xor are
+// merged on their keys, and the select's rows need no sorting.
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class QueryPlanner {
+    private static volatile String lastPlan;
+
+    private final Table table;
+    private final int pageCount;
+
+    QueryPlanner(Table table) {
+        this.table = table;
+        this.pageCount = table.getPageIndices().size();
+    }
+
+    // the plan of the last select, with its estimated costs
+    public static String getLastPlan() {
+        return lastPlan;
+    }
+
+    // the rows of the condition in postfix form, terms validated already
+    TupleIterator execute(Vector<Object> postfix) throws DBAppException {
+        if (pageCount == 0)
+            return TupleIterator.empty();
+
+        Plan plan = plan(toTree(postfix));
+        lastPlan = plan.toString();
+        return plan.open();
+    }
+
+    // a term, or an operator over two nodes
+    private static class Node {
+        final SQLTerm term;
+        final String operator;
+        final Node left;
+        final Node right;
+
+        Node(SQLTerm term) {
+            this(term, null, null, null);
+        }
+
+        Node(SQLTerm term, String operator, Node left, Node right) {
+            this.term = term;
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        boolean is(String operator) {
+            return this.operator != null && this.operator.equalsIgnoreCase(operator);
+        }
+
+        public String toString() {
+            if (term != null)
+                return term._strColumnName + " " + term._strOperator + " " + term._objValue;
+            return "(" + left + " " + operator.toLowerCase() + " " + right + ")";
+        }
+    }
+
+    private static Node toTree(Vector<Object> postfix) {
+        Stack<Node> nodes = new Stack<>();
+        for (Object object : postfix) {
+            if (object instanceof SQLTerm) {
+                nodes.push(new Node((SQLTerm) object));
+            } else {
+                Node right = nodes.pop();
+                Node left = nodes.pop();
+                nodes.push(new Node(null, (String) object, left, right));
+            }
+        }
+        return nodes.pop();
+    }
+
+    // a range over one column, a null bound leaves that side open
+    private static class Bounds {
+        final String column;
+        Comparable lower;
+        Comparable upper;
+        boolean lowerInclusive;
+        boolean upperInclusive;
+
+        Bounds(String column) {
+            this.column = column;
+        }
+
+        // null for !=, which is no range
+        static Bounds of(SQLTerm term) {
+            Bounds bounds = new Bounds(term._strColumnName);
+            Comparable value = (Comparable) term._objValue;
+            switch (term._strOperator) {
+                case "=":
+                    bounds.narrowLower(value, true);
+                    bounds.narrowUpper(value, true);
+                    return bounds;
+                case ">":
+                case ">=":
+                    bounds.narrowLower(value, term._strOperator.equals(">="));
+                    return bounds;
+                case "<":
+                case "<=":
+                    bounds.narrowUpper(value, term._strOperator.equals("<="));
+                    return bounds;
+            }
+            return null;
+        }
+
+        void narrow(Bounds other) {
+            if (other.lower != null)
+                narrowLower(other.lower, other.lowerInclusive);
+            if (other.upper != null)
+                narrowUpper(other.upper, other.upperInclusive);
+        }
+
+        void narrowLower(Comparable value, boolean inclusive) {
+            int diff = lower == null ? 1 : value.compareTo(lower);
+            if (diff > 0 || (diff == 0 && !inclusive)) {
+                lower = value;
+                lowerInclusive = inclusive;
+            }
+        }
+
+        void narrowUpper(Comparable value, boolean inclusive) {
+            int diff = upper == null ? -1 : value.compareTo(upper);
+            if (diff < 0 || (diff == 0 && !inclusive)) {
+                upper = value;
+                upperInclusive = inclusive;
+            }
+        }
+
+        // selectivity without an access path to count it
+        double guess() {
+            if (lower != null && upper != null)
+                return lower.compareTo(upper) == 0 ? 0.1 : 0.25;
+            return 1.0 / 3;
+        }
+
+        public String toString() {
+            if (lower != null && upper != null && lower.compareTo(upper) == 0 && lowerInclusive && upperInclusive)
+                return column + " = " + lower;
+            return (lower == null ? "" : lower + (lowerInclusive ? " <= " : " < ")) + column
+                    + (upper == null ? "" : (upperInclusive ? " <= " : " < ") + upper);
+        }
+    }
+
+    private abstract static class Plan {
+        // estimated pages read
+        final double cost;
+
+        Plan(double cost) {
+            this.cost = cost;
+        }
+
+        abstract TupleIterator open() throws DBAppException;
+    }
+
+    // the rows of a range, read through the clustering ranges or an index
+    private class RangePlan extends Plan {
+        final Bounds bounds;
+        final boolean clustering;
+
+        RangePlan(Bounds bounds, boolean clustering, double cost) {
+            super(cost);
+            this.bounds = bounds;
+            this.clustering = clustering;
+        }
+
+        TupleIterator open() throws DBAppException {
+            return table.openRange(bounds.column, bounds.lower, bounds.lowerInclusive, bounds.upper,
+                    bounds.upperInclusive);
+        }
+
+        public String toString() {
+            return (clustering ? "clustering range " : "index range ") + bounds + " cost " + Math.round(cost);
+        }
+    }
+
+    // one pass over the pages checking the whole condition of node. bounds
+    // is set when that is a single range, which can use the column scan
+    private class ScanPlan extends Plan {
+        final Node node;
+        final Bounds bounds;
+
+        ScanPlan(Node node, Bounds bounds) {
+            super(pageCount);
+            this.node = node;
+            this.bounds = bounds;
+        }
+
+        TupleIterator open() throws DBAppException {
+            // the single column scans skip pages by bloom filter and read
+            // pax pages a column at a time
+            if (node.term != null)
+                return table.openColumnScan(node.term._strColumnName,
+                        new Comparable[] { (Comparable) node.term._objValue }, new String[] { node.term._strOperator });
+            if (bounds != null && !hasAccessPath(bounds.column))
+                return table.openRange(bounds.column, bounds.lower, bounds.lowerInclusive, bounds.upper,
+                        bounds.upperInclusive);
+            return table.openScan(filter(node));
+        }
+
+        public String toString() {
+            return "scan " + (bounds != null ? bounds : node) + " cost " + pageCount;
+        }
+    }
+
+    // the rows of driver that match every residual filter
+    private class FilterPlan extends Plan {
+        final Plan driver;
+        final List<Filter> residuals;
+        final List<String> residualText;
+
+        FilterPlan(Plan driver, List<Filter> residuals, List<String> residualText) {
+            super(driver.cost);
+            this.driver = driver;
+            this.residuals = residuals;
+            this.residualText = residualText;
+        }
+
+        TupleIterator open() throws DBAppException {
+            return TupleIterator.filter(driver.open(), Filter.and(residuals));
+        }
+
+        public String toString() {
+            return driver + " filter " + String.join(" and ", residualText);
+        }
+    }
+
+    // the rows of two plans combined by or or xor, merged on their keys. the
+    // right side is read on a scan thread while the left one is read here
+    private class CombinePlan extends Plan {
+        final String operator;
+        final Plan left;
+        final Plan right;
+
+        CombinePlan(String operator, Plan left, Plan right) {
+            super(left.cost + right.cost);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        TupleIterator open() throws DBAppException {
+            TupleIterator rows = left.open();
+            try {
+                return TupleIterator.merge(rows, ParallelScan.ahead(right::open), operator);
+            } catch (DBAppException e) {
+                rows.close();
+                throw e;
+            }
+        }
+
+        public String toString() {
+            return "(" + left + " " + operator.toLowerCase() + " " + right + ")";
+        }
+    }
+
+    // a term of an and, with what it takes to drive the and or to filter it
+    private static class Conjunct {
+        final Plan plan; // null without an access path
+        final Filter filter;
+        final double selectivity;
+        final String text;
+
+        Conjunct(Plan plan, Filter filter, double selectivity, String text) {
+            this.plan = plan;
+            this.filter = filter;
+            this.selectivity = selectivity;
+            this.text = text;
+        }
+    }
+
+    private Plan plan(Node node) throws DBAppException {
+        if (node.term != null) {
+            Bounds bounds = Bounds.of(node.term);
+            Plan access = bounds == null ? null : access(bounds);
+            return access != null ? access : new ScanPlan(node, null);
+        }
+        if (node.is("and"))
+            return planAnd(node);
+
+        // an or or xor reads the rows of both sides through their access
+        // paths, unless one of them scans anyway
+        Plan left = plan(node.left);
+        Plan right = plan(node.right);
+        if (left instanceof ScanPlan || right instanceof ScanPlan || left.cost + right.cost >= pageCount)
+            return new ScanPlan(node, null);
+        return new CombinePlan(node.operator, left, right);
+    }
+
+    private Plan planAnd(Node node) throws DBAppException {
+        ArrayList<Node> nodes = new ArrayList<>();
+        flattenAnd(node, nodes);
+
+        // comparisons on one column become one range
+        LinkedHashMap<String, Bounds> ranges = new LinkedHashMap<>();
+        ArrayList<Node> others = new ArrayList<>();
+        for (Node conjunct : nodes) {
+            Bounds bounds = conjunct.term == null ? null : Bounds.of(conjunct.term);
+            if (bounds == null)
+                others.add(conjunct);
+            else if (ranges.containsKey(bounds.column))
+                ranges.get(bounds.column).narrow(bounds);
+            else
+                ranges.put(bounds.column, bounds);
+        }
+
+        ArrayList<Conjunct> conjuncts = new ArrayList<>();
+        for (Bounds bounds : ranges.values()) {
+            Plan access = access(bounds);
+            double selectivity = access == null ? bounds.guess() : access.cost / pageCount;
+            conjuncts.add(new Conjunct(access, filter(bounds), selectivity, bounds.toString()));
+        }
+        for (Node other : others) {
+            Plan plan = other.term == null ? plan(other) : null;
+            if (plan instanceof ScanPlan)
+                plan = null;
+            double selectivity = plan == null ? guess(other) : plan.cost / pageCount;
+            conjuncts.add(new Conjunct(plan, filter(other), selectivity, other.toString()));
+        }
+
+        Conjunct driver = null;
+        for (Conjunct conjunct : conjuncts) {
+            if (conjunct.plan != null && (driver == null || conjunct.plan.cost < driver.plan.cost))
+                driver = conjunct;
+        }
+        if (driver == null || driver.plan.cost >= pageCount)
+            return new ScanPlan(node, ranges.size() == 1 && others.isEmpty() ? ranges.values().iterator().next() : null);
+
+        conjuncts.remove(driver);
+        if (conjuncts.isEmpty())
+            return driver.plan;
+
+        conjuncts.sort(Comparator.comparingDouble(conjunct -> conjunct.selectivity));
+        ArrayList<Filter> residuals = new ArrayList<>();
+        ArrayList<String> residualText = new ArrayList<>();
+        for (Conjunct conjunct : conjuncts) {
+            residuals.add(conjunct.filter);
+            residualText.add(conjunct.text);
+        }
+        return new FilterPlan(driver.plan, residuals, residualText);
+    }
+
+    private static void flattenAnd(Node node, List<Node> conjuncts) {
+        if (node.is("and")) {
+            flattenAnd(node.left, conjuncts);
+            flattenAnd(node.right, conjuncts);
+        } else {
+            conjuncts.add(node);
+        }
+    }
+
+    // reading bounds through the clustering ranges or an index of its
+    // column, null if it has neither or an index would read every page
+    private Plan access(Bounds bounds) throws DBAppException {
+        if (bounds.column.equals(table.getClusteringColumn()))
+            return new RangePlan(bounds, true,
+                    table.countPagesInRange(bounds.lower, bounds.upper, bounds.upperInclusive));
+
+        BTreePlus index = table.getIndex(bounds.column);
+        if (index == null)
+            return null;
+
+        int rows = index.count(bounds.lower, bounds.lowerInclusive, bounds.upper, bounds.upperInclusive, pageCount);
+        return rows < pageCount ? new RangePlan(bounds, false, rows) : null;
+    }
+
+    private boolean hasAccessPath(String column) {
+        return column.equals(table.getClusteringColumn()) || table.columnIsIndexed(column);
+    }
+
+    private double guess(Node node) {
+        if (node.term != null) {
+            Bounds bounds = Bounds.of(node.term);
+            return bounds == null ? 0.9 : bounds.guess();
+        }
+
+        double left = guess(node.left);
+        double right = guess(node.right);
+        if (node.is("and"))
+            return left * right;
+        if (node.is("or"))
+            return left + right - left * right;
+        return left + right - 2 * left * right;
+    }
+
+    private Filter filter(Node node) {
+        if (node.term != null)
+            return Filter.compare(table.getIndexOfColumn(node.term._strColumnName), node.term._strOperator,
+                    (Comparable) node.term._objValue);
+
+        Filter left = filter(node.left);
+        Filter right = filter(node.right);
+        if (node.is("and")) {
+            ArrayList<Filter> both = new ArrayList<>();
+            both.add(left);
+            both.add(right);
+            return Filter.and(both);
+        }
+        return node.is("or") ? Filter.or(left, right) : Filter.xor(left, right);
+    }
+
+    private Filter filter(Bounds bounds) {
+        int column = table.getIndexOfColumn(bounds.column);
+        ArrayList<Filter> filters = new ArrayList<>();
+        if (bounds.lower != null)
+            filters.add(Filter.compare(column, bounds.lowerInclusive ? ">=" : ">", bounds.lower));
+        if (bounds.upper != null)
+            filters.add(Filter.compare(column, bounds.upperInclusive ? "<=" : "<", bounds.upper));
+        return Filter.and(filters);
+    }
+}
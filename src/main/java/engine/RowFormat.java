@@ -0,0 +1,83 @@
+package engine;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+
+// Layout of a tuple compiled from the column types of a schema: Integer and
+// Double columns are kept in one long[] (doubles as their raw bits), String
+// columns in a String[], and every ordinal is mapped to its slot in one of
+// them. The comparator of the clustering key is picked once from its type.
+// Formats are interned, so every tuple of a table shares one instance.
+public final class RowFormat {
+    private static final Hashtable<String, RowFormat> formats = new Hashtable<>();
+
+    private final byte[] types;
+    private final int clusteringIndex;
+    private final int[] slots;
+    private final int numberCount;
+    private final int stringCount;
+
+    private RowFormat(byte[] types, int clusteringIndex) {
+        this.types = types;
+        this.clusteringIndex = clusteringIndex;
+        this.slots = new int[types.length];
+
+        int numbers = 0;
+        int strings = 0;
+        for (int ordinal = 0; ordinal < types.length; ordinal++)
+            slots[ordinal] = types[ordinal] == PageFormat.TYPE_STRING ? strings++ : numbers++;
+
+        numberCount = numbers;
+        stringCount = strings;
+    }
+
+    // types are PageFormat.TYPE_INTEGER, TYPE_DOUBLE or TYPE_STRING by ordinal
+    public static RowFormat of(byte[] types, int clusteringIndex) {
+        String key = Arrays.toString(types) + clusteringIndex;
+        RowFormat format = formats.get(key);
+        if (format == null) {
+            RowFormat created = new RowFormat(types.clone(), clusteringIndex);
+            format = formats.putIfAbsent(key, created);
+            if (format == null)
+                format = created;
+        }
+        return format;
+    }
+
+    // the format of a search key made of the clustering value alone
+    public static RowFormat ofKey(Object clusteringValue) {
+        try {
+            return of(new byte[] { PageFormat.typeOf(clusteringValue) }, 0);
+        } catch (DBAppException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    public int getColumnCount() {
+        return types.length;
+    }
+
+    public byte getType(int ordinal) {
+        return types[ordinal];
+    }
+
+    public int getClusteringIndex() {
+        return clusteringIndex;
+    }
+
+    int getSlot(int ordinal) {
+        return slots[ordinal];
+    }
+
+    int getNumberCount() {
+        return numberCount;
+    }
+
+    int getStringCount() {
+        return stringCount;
+    }
+
+    public byte getClusteringType() {
+        return types[clusteringIndex];
+    }
+}
@@ -9,18 +9,24 @@ public class SQLTerm {
 	public String _strTableName, _strColumnName, _strOperator;
 	public Object _objValue;
 
+	// the rows of a term and how they were combined, filled by doOperation
+	// for callers of the earlier API. selectFromTable does not use them
+	@Deprecated
 	public Vector<Tuple> result;
+	@Deprecated
 	public String resultText;
 
 	public SQLTerm() {
 
 	}
 
+	@Deprecated
 	public SQLTerm(Vector<Tuple> result, SQLTerm term1, SQLTerm term2, String operator) {
 		this.result = result;
 		resultText = (term1.resultText == null ? (term1._strColumnName + term1._strOperator + term1._objValue)
-				: term1.resultText) + " " + operator + " " + term2._strColumnName + term2._strOperator
-				+ term2._objValue;
+				: term1.resultText) + " " + operator + " "
+				+ (term2.resultText == null ? (term2._strColumnName + term2._strOperator + term2._objValue)
+						: term2.resultText);
 	}
 
 }
\ No newline at end of file
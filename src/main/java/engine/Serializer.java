@@ -1,6 +1,11 @@
 package engine;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public class Serializer {
     public static void serializeTo(Object object, String filePath) throws DBAppException {
@@ -17,12 +22,59 @@ public class Serializer {
         }
     }
 
+    // writes the object through the given codec, deserializeFrom recognises
+    // compressed files by their frame header
+    public static void serializeTo(Object object, String filePath, Codec codec) throws DBAppException {
+        if (codec == Codec.NONE) {
+            serializeTo(object, filePath);
+            return;
+        }
+
+        writeBytes(filePath, serialize(object, codec));
+    }
+
+    public static byte[] serialize(Object object, Codec codec) throws DBAppException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+
+            out.writeObject(object);
+            out.close();
+
+            return codec.compress(bytes.toByteArray());
+        } catch (IOException ex) {
+            throw new DBAppException("Failed to serialize");
+        }
+    }
+
+    public static void writeBytes(String filePath, byte[] data) throws DBAppException {
+        try {
+            Files.write(Paths.get(filePath), data);
+        } catch (IOException ex) {
+            throw new DBAppException("Failed to serialize");
+        }
+    }
+
+    // returns once the data is on disk, not only in the page cache
+    public static void writeBytesDurably(String filePath, byte[] data) throws DBAppException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        } catch (IOException ex) {
+            throw new DBAppException("Failed to serialize " + filePath, ex);
+        }
+    }
+
     public static <T> T deserializeFrom(String filePath) throws DBAppException {
         T result = null;
+        byte[] data = Codec.decompress(readBytes(filePath));
 
         try {
-            // Reading the object from a file
-            FileInputStream file = new FileInputStream(filePath);
+            // Reading the object from the file contents
+            ByteArrayInputStream file = new ByteArrayInputStream(data);
             ObjectInputStream in = new ObjectInputStream(file);
 
             result = (T) in.readObject();
@@ -38,4 +90,26 @@ public class Serializer {
 
         return result;
     }
+
+    public static Page readPage(byte[] data) throws DBAppException {
+        if (!PageFormat.isLegacy(data))
+            return PageFormat.decode(ByteBuffer.wrap(data));
+
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+            Page page = (Page) in.readObject();
+            in.close();
+            return page;
+        } catch (Exception ex) {
+            throw new DBAppException("Failed to deserialize");
+        }
+    }
+
+    public static byte[] readBytes(String filePath) throws DBAppException {
+        try {
+            return Files.readAllBytes(Paths.get(filePath));
+        } catch (IOException ex) {
+            throw new DBAppException("Failed to deserialize");
+        }
+    }
 }
@@ -1,12 +1,11 @@
 package engine;
 
-import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import BTree.BTreePlus;
 import BTree.Pair;
+import BTree.PostingList;
 
 @SuppressWarnings({ "unchecked", "rawtypes" })
 public class Table {
@@ -18,65 +17,72 @@ public class Table {
 	private String clusteringColumn;
 	private int clusteringIndex;
 
+	// column ordinals and tuple layout, compiled once from the schema
+	private final Hashtable<String, Integer> ordinals;
+	private final RowFormat format;
+
 	private Vector<Range> ranges;
-	private Vector<String> pagesPath;
+	private final TableFile file;
+	private final Vector<Integer> pageIndices;
+
+	// the table of a schema in the catalog, see Catalog.getTable
+	public static Table open(String name) throws DBAppException {
+		Table table = new Table(name);
+		table.rebuildLegacyIndices();
+		return table;
+	}
 
-	public Table(String name) throws DBAppException {
-		pagesPath = new Vector<>();
-		ranges = new Vector<>();
+	private Table(String name) throws DBAppException {
 		columns = new Hashtable<>();
 		tableName = name;
 		indices = new Hashtable<>();
+		ordinals = new Hashtable<>();
+
+		Catalog.Schema schema = Catalog.getSchema(tableName);
+		byte[] types = new byte[schema.getColumnNames().size()];
+		for (String column : schema.getColumnNames()) {
+			if (column.equals(schema.getClusteringColumn())) {
+				clusteringColumn = column;
+				clusteringIndex = columns.size();
+			}
 
-		try {
-
-			Files.readAllLines(Paths.get("Tables\\metadata.csv")).stream().skip(1).forEach((line) -> {
-				String[] data = line.split(",");
-
-				if (!data[0].equals(tableName))
-					return;
-
-				if (Boolean.parseBoolean(data[3])) // check if key is the clustering key
-				{
-					clusteringColumn = data[1];
-					clusteringIndex = columns.size();
-				}
-
-				columns.put(data[1], data[2]);
-
-				if (!data[4].equals("null"))
-					indices.put(data[1], "Tables\\" + tableName + "\\" + data[4] + ".ser");
-			});
-		} catch (IOException e) {
-			throw new DBAppException("Could not read metadata file");
+			types[columns.size()] = PageFormat.typeOfColumn(schema.getColumnType(column));
+			ordinals.put(column, columns.size());
+			columns.put(column, schema.getColumnType(column));
 		}
 
-		if (columns.isEmpty())
-			throw new DBAppException("Table does not exist.");
+		for (Map.Entry<String, String> index : schema.getIndexNames().entrySet())
+			indices.put(index.getKey(), "Tables\\" + tableName + "\\" + index.getValue() + ".ser");
 
 		if (clusteringColumn == null)
 			throw new DBAppException("No clustering column??");
 
-		File[] files = new File("Tables\\" + tableName).listFiles();
-		if (files == null)
-			return;
+		format = RowFormat.of(types, clusteringIndex);
+		file = TableFile.open(tableName);
+		pageIndices = file.getPageIndices();
+		ranges = file.getRanges();
+	}
 
-		for (File file : files)
-			if (file.getName().equals("ranges.class"))
-				ranges = Serializer.deserializeFrom("Tables\\" + tableName + "\\ranges.class");
+	private void rebuildLegacyIndices() throws DBAppException {
+		Catalog.Schema schema = Catalog.getSchema(tableName);
 
-		// Filter files that have names such as StudentXX.class (student = table name)
-		pagesPath.addAll(Arrays.stream(files)
-				.filter(file -> file.getName().contains(".class") && file.getName().contains(tableName))
-				.map(File::getPath).toList());
+		// indexes written as one serialized tree, or with page numbers as
+		// values, are built again from the pages
+		for (Map.Entry<String, String> index : schema.getIndexNames().entrySet()) {
+			String path = indices.get(index.getKey());
+			if (file.isLegacyIndex(path)) {
+				file.freeLegacyIndex(path);
+				createIndex(index.getKey(), index.getValue(), BTreePlus.order);
+			}
+		}
 	}
 
 	public String getClusteringColumn() {
 		return clusteringColumn;
 	}
 
-	public Vector<String> getPagesPath() {
-		return pagesPath;
+	public Vector<Integer> getPageIndices() {
+		return pageIndices;
 	}
 
 	public Vector<Range> getRanges() {
@@ -91,6 +97,10 @@ public class Table {
 		return columns;
 	}
 
+	public RowFormat getFormat() {
+		return format;
+	}
+
 	public int findPageMightContainTuple(Object pk) {
 		int index = Collections.binarySearch(ranges, new Range(pk, pk, false));
 		if (index >= 0)
@@ -108,107 +118,90 @@ public class Table {
 		return -1;
 	}
 
+	// whether a tuple with the clustering key is in the table
+	public boolean containsKey(Object clusteringKey) throws DBAppException {
+		int index = findPageMightContainTuple(clusteringKey);
+		if (index < 0)
+			return false;
+
+		Page page = BufferPool.fetch(tableName, pageIndices.get(index));
+		return Collections.binarySearch(page.getTuples(), new Tuple(clusteringKey)) >= 0;
+	}
+
 	private void insertHelper(Page page, Tuple tuple, int i) throws DBAppException, Exception {
+		Tuple inserted = tuple;
 
 		while (true) {
 
 			Range oldRange = ranges.get(i);
-			page.insert(tuple);
-
-			Hashtable<String, BTreePlus> trees = new Hashtable<>();
-
-			for (Map.Entry<String, String> column : indices.entrySet())
-				trees.put(column.getKey(), Serializer.deserializeFrom(column.getValue()));
-
-			for (Map.Entry<String, BTreePlus> btree : trees.entrySet()) {
-				Object key = tuple.getRecord(getIndexOfColumn(btree.getKey()));
-				BTreePlus tree = btree.getValue();
-
-				tree.insert(key, page.getPageIndex());
+			try {
+				page.insert(tuple);
+			} catch (DBAppException e) {
+				BufferPool.unpin(tableName, pageIndices.get(i), false);
+				throw e;
 			}
+			file.addTuple(page.getPageIndex(), tuple);
 
 			if (!page.maximumExceeded()) { // maximum not exceeded
-				Serializer.serializeTo(page, pagesPath.get(i));
+				BufferPool.unpin(tableName, pageIndices.get(i), true);
 
 				Range newRange = page.getRange();
 				if (!oldRange.equals(newRange)) {
 					ranges.setElementAt(newRange, i);
-					Serializer.serializeTo(ranges, "Tables\\" + tableName + "\\ranges.class");
+					file.rangesChanged();
 				}
-
-				for (String column : indices.keySet()) {
-					BTreePlus tree = trees.get(column);
-					String path = indices.get(column);
-
-					Serializer.serializeTo(tree, path);
-				}
-
-				return;
+				break;
 			}
 
 			// code continues here lw maximum number of tuples is exceeded
 			tuple = page.deleteAndGetLastTuple();
-			for (Map.Entry<String, BTreePlus> btree : trees.entrySet()) {
-				Object key = tuple.getRecord(getIndexOfColumn(btree.getKey()));
-				BTreePlus tree = btree.getValue();
-
-				tree.delete(key, page.getPageIndex());
-			}
-
-			for (String column : indices.keySet()) {
-				BTreePlus tree = trees.get(column);
-				String path = indices.get(column);
-
-				Serializer.serializeTo(tree, path);
-			}
 
 			Range newRange = page.getRange();
 			if (!oldRange.equals(newRange)) {
 				ranges.setElementAt(newRange, i);
-				Serializer.serializeTo(ranges, "Tables\\" + tableName + "\\ranges.class");
+				file.rangesChanged();
 			}
 
-			Serializer.serializeTo(page, pagesPath.get(i));
+			BufferPool.unpin(tableName, pageIndices.get(i), true);
 			i++;
 
-			if (i < pagesPath.size()) { // lw fe page ba3d de
-				page = Serializer.deserializeFrom(pagesPath.get(i));
+			if (i < pageIndices.size()) { // lw fe page ba3d de
+				page = BufferPool.pin(tableName, pageIndices.get(i));
 				continue;
 			}
 
 			// maximum is exceeded and no more pages
-			String tablePath = "Tables\\" + tableName + "\\" + tableName;
-			int lastPath = Integer.parseInt(pagesPath.getLast().replace(tablePath, "").replace(".class", ""));
-
-			page = new Page(clusteringIndex, lastPath + 1);
-			String pagePath = page.getPagePath(this.tableName);
-			pagesPath.add(pagePath);
+			page = new Page(clusteringIndex, file.newPageIndex());
+			pageIndices.add(page.getPageIndex());
+			BufferPool.create(tableName, page);
 
 			page.insert(tuple);
-			for (Map.Entry<String, BTreePlus> btree : trees.entrySet()) {
-				Object key = tuple.getRecord(getIndexOfColumn(btree.getKey()));
-				BTreePlus tree = btree.getValue();
+			file.addTuple(page.getPageIndex(), tuple);
+			ranges.add(page.getRange());
 
-				tree.insert(key, page.getPageIndex());
-			}
+			BufferPool.unpin(tableName, page.getPageIndex(), true);
+			file.rangesChanged();
+			break;
+		}
 
-			for (String column : indices.keySet()) {
-				BTreePlus tree = trees.get(column);
-				String path = indices.get(column);
+		// the index entries point at clustering keys, so the tuples shifted to
+		// the next pages keep theirs
+		insertIntoIndexes(inserted);
+	}
 
-				Serializer.serializeTo(tree, path);
-			}
+	private void insertIntoIndexes(Tuple tuple) throws DBAppException {
+		for (Map.Entry<String, String> column : indices.entrySet()) {
+			Object key = tuple.getRecord(getIndexOfColumn(column.getKey()));
+			BTreePlus tree = file.getIndex(column.getValue());
 
-			ranges.add(page.getRange());
+			tree.insert(key, tuple.getRecord(clusteringIndex));
 
-			Serializer.serializeTo(page, pagePath);
-			Serializer.serializeTo(ranges, "Tables\\" + tableName + "\\ranges.class");
-			break;
+			file.indexChanged(column.getValue());
 		}
 	}
 
-	public void insert(Hashtable<String, Object> records) throws DBAppException, Exception {
-
+	// checks the record against the schema and builds its tuple
+	public Tuple toTuple(Hashtable<String, Object> records) throws DBAppException {
 		for (Map.Entry<String, String> column : columns.entrySet()) {
 			Object record = records.get(column.getKey());
 			if (record == null)
@@ -220,27 +213,33 @@ public class Table {
 				throw new DBAppException("Column type mismatch??");
 		}
 
-		Tuple tuple = new Tuple(records, clusteringIndex);
-		Page page;
-		if (pagesPath.size() == 0) {
+		return new Tuple(records, format, ordinals);
+	}
 
-			page = new Page(clusteringIndex, 1);
-			String pagePath = page.getPagePath(this.tableName);
-			pagesPath.add(pagePath);
-			page.insert(tuple);
-			ranges.add(page.getRange());
+	// the record a tuple was built from, column name -> value
+	public Hashtable<String, Object> toRecords(Tuple tuple) {
+		Hashtable<String, Object> records = new Hashtable<>();
+		for (Map.Entry<String, Integer> ordinal : ordinals.entrySet())
+			records.put(ordinal.getKey(), tuple.getRecord(ordinal.getValue()));
+		return records;
+	}
 
-			for (Map.Entry<String, String> column : indices.entrySet()) {
-				Object key = tuple.getRecord(getIndexOfColumn(column.getKey()));
-				BTreePlus tree = Serializer.deserializeFrom(column.getValue());
+	public void insert(Hashtable<String, Object> records) throws DBAppException, Exception {
 
-				tree.insert(key, page.getPageIndex());
+		Tuple tuple = toTuple(records);
+		Page page;
+		if (pageIndices.size() == 0) {
 
-				Serializer.serializeTo(tree, column.getValue());
-			}
+			page = new Page(clusteringIndex, file.newPageIndex());
+			pageIndices.add(page.getPageIndex());
+			BufferPool.create(tableName, page);
+			page.insert(tuple);
+			file.addTuple(page.getPageIndex(), tuple);
+			ranges.add(page.getRange());
+			insertIntoIndexes(tuple);
 
-			Serializer.serializeTo(page, pagePath);
-			Serializer.serializeTo(ranges, "Tables\\" + tableName + "\\ranges.class");
+			BufferPool.unpin(tableName, page.getPageIndex(), true);
+			file.rangesChanged();
 			return;
 
 		} else {
@@ -252,8 +251,8 @@ public class Table {
 			if (index < 0)
 				index = -index - 1;
 
-			if (index == 0 || index == pagesPath.size())
-				index = index == pagesPath.size() ? index - 1 : index;
+			if (index == 0 || index == pageIndices.size())
+				index = index == pageIndices.size() ? index - 1 : index;
 			else {
 				int current = index - 1;
 				int next = index;
@@ -264,7 +263,7 @@ public class Table {
 					index = current;
 			}
 
-			Page p = Serializer.deserializeFrom(pagesPath.get(index));
+			Page p = BufferPool.pin(tableName, pageIndices.get(index));
 			insertHelper(p, tuple, index);
 		}
 
@@ -272,84 +271,208 @@ public class Table {
 
 	}
 
-	public int getIndexOfColumn(String columnName) {
-		if (!columns.containsKey(columnName))
-			return -1;
+	// throws if two of the tuples, sorted on the clustering key, or one of
+	// them and a tuple of the table have the same key. every page is fetched
+	// at most once
+	public void checkDuplicates(List<Tuple> tuples) throws DBAppException {
+		int fetched = -1;
+		Page page = null;
+		for (int i = 0; i < tuples.size(); i++) {
+			Tuple tuple = tuples.get(i);
+			if (i > 0 && tuples.get(i - 1).compareTo(tuple) == 0)
+				throw new DBAppException("Cannot insert duplicate key");
+
+			int index = findPageMightContainTuple(tuple.getRecord(clusteringIndex));
+			if (index < 0)
+				continue;
+
+			if (index != fetched) {
+				page = BufferPool.fetch(tableName, pageIndices.get(index));
+				fetched = index;
+			}
+			if (Collections.binarySearch(page.getTuples(), tuple) >= 0)
+				throw new DBAppException("Cannot insert duplicate key");
+		}
+	}
 
+	// merges tuples sorted on the clustering key into the table in one pass
+	// over its pages. pages none of the tuples fall into are kept as they are;
+	// a page that gets tuples is read, merged with them and written out again
+	// as full pages together with the pages before it that were rewritten.
+	// stops once maxPages pages were written, so the dirty pages of one call
+	// stay bounded, and returns how many of the tuples it inserted
+	public int bulkInsert(List<Tuple> tuples, int maxPages) throws DBAppException {
+		checkDuplicates(tuples);
+
+		Vector<Integer> newPageIndices = new Vector<>();
+		Vector<Range> newRanges = new Vector<>();
+		Vector<Tuple> pending = new Vector<>();
+
+		int next = 0;
+		int kept = 0;
 		int i = 0;
-		for (String column : columns.keySet()) {
-			if (column.equals(columnName))
-				return i;
+		for (; i < pageIndices.size() && next < tuples.size() && newPageIndices.size() - kept < maxPages; i++) {
+			int pageIndex = pageIndices.get(i);
+			Range range = ranges.get(i);
+
+			int end = next;
+			while (end < tuples.size() && range.isLessThanEqualMax(tuples.get(end).getRecord(clusteringIndex)))
+				end++;
+
+			if (end == next) {
+				writePages(pending, true, newPageIndices, newRanges);
+				newPageIndices.add(pageIndex);
+				newRanges.add(range);
+				kept++;
+				continue;
+			}
 
-			i++;
+			// both sides are sorted, so one merge keeps the page order
+			Page page = BufferPool.pin(tableName, pageIndex);
+			Vector<Tuple> old = page.getTuples();
+			int j = 0;
+			while (j < old.size() || next < end) {
+				if (next == end || (j < old.size() && old.get(j).compareTo(tuples.get(next)) < 0))
+					pending.add(old.get(j++));
+				else
+					pending.add(tuples.get(next++));
+			}
+
+			BufferPool.discard(tableName, pageIndex);
+			file.freePage(pageIndex);
+
+			writePages(pending, false, newPageIndices, newRanges);
+		}
+
+		// tuples past the last page are appended as new pages
+		if (i == pageIndices.size()) {
+			int end = Math.min(tuples.size(),
+					next + Math.max(1, maxPages - newPageIndices.size() + kept) * Page.maxRowCount);
+			pending.addAll(tuples.subList(next, end));
+			next = end;
 		}
-		return i;
+		writePages(pending, true, newPageIndices, newRanges);
+
+		for (; i < pageIndices.size(); i++) {
+			newPageIndices.add(pageIndices.get(i));
+			newRanges.add(ranges.get(i));
+		}
+
+		replace(pageIndices, newPageIndices);
+		replace(ranges, newRanges);
+		file.rangesChanged();
+
+		updateIndexes(tuples.subList(0, next));
+		return next;
 	}
 
-	public static int getIndexOfColumn(String columnName, Hashtable<String, String> columns) {
-		if (!columns.containsKey(columnName))
-			return -1;
+	// replaces what a vector holds in one step, under the vector's lock, so it
+	// is never seen emptied
+	private static <T> void replace(Vector<T> vector, List<T> contents) {
+		synchronized (vector) {
+			vector.clear();
+			vector.addAll(contents);
+		}
+	}
 
-		int i = 0;
-		for (String column : columns.keySet()) {
-			if (column.equals(columnName))
-				return i;
+	// writes pending out as full pages, and the rest as well if all is set
+	private void writePages(Vector<Tuple> pending, boolean all, Vector<Integer> newPageIndices,
+			Vector<Range> newRanges) throws DBAppException {
+		int written = 0;
+		while (pending.size() - written >= Page.maxRowCount || (all && written < pending.size())) {
+			int count = Math.min(Page.maxRowCount, pending.size() - written);
+
+			Page page = new Page(clusteringIndex, file.newPageIndex());
+			BufferPool.create(tableName, page);
+			for (Tuple tuple : pending.subList(written, written + count)) {
+				page.getTuples().add(tuple);
+				file.addTuple(page.getPageIndex(), tuple);
+			}
+			BufferPool.unpin(tableName, page.getPageIndex(), true);
 
-			i++;
+			newPageIndices.add(page.getPageIndex());
+			newRanges.add(page.getRange());
+			written += count;
 		}
-		return i;
+		pending.subList(0, written).clear();
+	}
+
+	// adds the index entries of the inserted tuples in key order. the tuples
+	// the merge moved to other pages keep their clustering keys, and so their
+	// entries
+	private void updateIndexes(List<Tuple> inserted) throws DBAppException {
+		for (Map.Entry<String, String> index : indices.entrySet()) {
+			BTreePlus tree = file.getIndex(index.getValue());
+			int column = getIndexOfColumn(index.getKey());
+
+			Vector<Pair<Comparable, Object>> entries = new Vector<>();
+			for (Tuple tuple : inserted)
+				entries.add(new Pair<>(tuple.getRecord(column), tuple.getRecord(clusteringIndex)));
+			entries.sort((entry1, entry2) -> entry1.getFirst().compareTo(entry2.getFirst()));
+
+			for (Pair<Comparable, Object> entry : entries)
+				tree.insert(entry.getFirst(), entry.getSecond());
+			file.indexChanged(index.getValue());
+		}
+	}
+
+	public int getIndexOfColumn(String columnName) {
+		return getIndexOfColumn(columnName, ordinals);
+	}
+
+	public static int getIndexOfColumn(String columnName, Hashtable<String, Integer> ordinals) {
+		Integer ordinal = ordinals.get(columnName);
+		return ordinal == null ? -1 : ordinal;
 	}
 
 	public static void updateIndex(Hashtable<String, String> indices, Vector<Tuple> deletedTuples,
-			Object pindex, Hashtable<String, String> columns) throws DBAppException {
+			int clusteringIndex, Hashtable<String, Integer> ordinals, TableFile file) throws DBAppException {
 		if (deletedTuples.isEmpty())
 			return;
 		for (Map.Entry<String, String> entry : indices.entrySet()) {
 			String name = entry.getKey();
 			String bpath = indices.get(name);
-			BTreePlus btree = Serializer.deserializeFrom(bpath);
-			int index = getIndexOfColumn(name, columns);
+			BTreePlus btree = file.getIndex(bpath);
+			int index = getIndexOfColumn(name, ordinals);
 			for (Tuple t : deletedTuples) {
 				Object key = t.getRecord(index);
-				btree.delete(key, pindex);
+				btree.delete(key, t.getRecord(clusteringIndex));
 			}
-			Serializer.serializeTo(btree, bpath);
+			file.indexChanged(bpath);
 		}
 	}
 
-	public void deleteWithClusteringKey(Hashtable<String, Object> records, Vector<String> pages,
+	public void deleteWithClusteringKey(Hashtable<String, Object> records, Vector<Integer> pages,
 			Vector<Range> rangesToDelete) throws DBAppException {
 		Object o = records.get(clusteringColumn);
 		Page page;
 		int index = findPageMightContainTuple(o);
 		if (index < 0)
 			return;
-		String path = pagesPath.get(index);
 		Range oldRange = ranges.get(index);
-		page = Serializer.deserializeFrom(path);
-		int x = page.deleteHelper(records, this.columns, this.indices, true, this.clusteringColumn);
+		page = BufferPool.pin(tableName, pageIndices.get(index));
+		int x = page.deleteHelper(records, this.ordinals, this.indices, true, this.clusteringColumn,
+				file);
 
 		deleteFromPage(x, index, page, oldRange, pages, rangesToDelete);
 	}
 
-	public void deleteFromPage(int noTuples, int i, Page page, Range oldRange, Vector<String> pages,
+	public void deleteFromPage(int noTuples, int i, Page page, Range oldRange, Vector<Integer> pages,
 			Vector<Range> rangesToDelete) throws DBAppException {
-		String path = page.getPagePath(tableName);
+		int pageIndex = page.getPageIndex();
 		if (noTuples == 0) {
-			pages.add(path);
+			pages.add(pageIndex);
 			rangesToDelete.add(ranges.get(i));
-			File file = new File(path);
-			if (file.exists()) {
-				file.delete();
-			}
+			BufferPool.discard(tableName, pageIndex);
+			file.freePage(pageIndex);
 		}
 
 		else {
-			Serializer.serializeTo(page, path);
+			BufferPool.unpin(tableName, pageIndex, true);
 			Range newRange = page.getRange();
 			if (!oldRange.equals(newRange)) {
 				ranges.setElementAt(newRange, i);
-				Serializer.serializeTo(ranges, "Tables\\" + tableName + "\\ranges.class");
+				file.rangesChanged();
 			}
 
 		}
@@ -359,7 +482,7 @@ public class Table {
 	public void deleteTuple(Hashtable<String, Object> records) throws DBAppException, Exception {
 		Page page;
 
-		Vector<String> pages = new Vector<>();
+		Vector<Integer> pages = new Vector<>();
 		Vector<Range> rangesToDelete = new Vector<>();
 
 		for (Map.Entry<String, Object> entry : records.entrySet()) {
@@ -377,9 +500,9 @@ public class Table {
 
 		if (records.containsKey(clusteringColumn)) {
 			deleteWithClusteringKey(records, pages, rangesToDelete);
-			this.pagesPath.removeAll(pages);
+			this.pageIndices.removeAll(pages);
 			this.ranges.removeAll(rangesToDelete);
-			Serializer.serializeTo(ranges, "Tables\\" + tableName + "\\ranges.class");
+			file.rangesChanged();
 			return;
 		}
 
@@ -388,276 +511,174 @@ public class Table {
 			Object o = entry.getValue();
 			if (indices.containsKey(name)) {
 				String bpath = indices.get(name);
-				BTreePlus btree = Serializer.deserializeFrom(bpath);
-				Vector<Object> values = btree.search(o, false);
-				for (int i = 0; i < values.size(); i++) {
-					int y = (int) values.get(i);
-					String path = Page.getPagePath(this.tableName, y);
-					page = Serializer.deserializeFrom(path);
-					Range oldRange = page.getRange();
-					int RangeIndex = ranges.indexOf(oldRange);
-					int x = page.deleteHelper(records, this.columns, this.indices, false, this.clusteringColumn);
-					deleteFromPage(x, RangeIndex, page, oldRange, pages, rangesToDelete);
-					this.pagesPath.removeAll(pages);
+				BTreePlus btree = file.getIndex(bpath);
+				PostingList values = btree.search(o);
+				if (values == null)
+					return;
+
+				// the entries are the clustering keys of the tuples, so each
+				// one is deleted like a delete on its clustering key
+				for (Object clusteringKey : values) {
+					Hashtable<String, Object> tupleRecords = new Hashtable<>(records);
+					tupleRecords.put(clusteringColumn, clusteringKey);
+					deleteWithClusteringKey(tupleRecords, pages, rangesToDelete);
+					this.pageIndices.removeAll(pages);
 					this.ranges.removeAll(rangesToDelete);
-					Serializer.serializeTo(ranges, "Tables\\" + tableName + "\\ranges.class");
+					pages.clear();
+					rangesToDelete.clear();
 				}
+				file.rangesChanged();
 
 				return;
 			}
 		}
 
-		for (int i = 0; i < pagesPath.size(); i++) {
-			String path = pagesPath.get(i);
+		// the pages are searched on the scan threads, then only the ones that
+		// hold a tuple to delete are changed, one at a time on this thread
+		ArrayList<Filter> filters = new ArrayList<>();
+		for (Map.Entry<String, Object> record : records.entrySet())
+			filters.add(Filter.compare(ordinals.get(record.getKey()), "=", (Comparable) record.getValue()));
+		Filter filter = Filter.and(filters);
+
+		Vector<Tuple> found = new Vector<>();
+		ParallelScan.scan(pageIndices, (pageIndex, tuples) -> {
+			ZoneMap zoneMap = file.getZoneMap(pageIndex);
+			if (zoneMap != null && !zoneMap.mightContain(records, ordinals))
+				return;
+			if (!bloomFiltersMightContain(pageIndex, records))
+				return;
+
+			Page scanned = scannedPage(pageIndex);
+			countFalsePositives(scanned, records);
+			select(scanned.getTuples(), filter, tuples);
+		}, found);
+
+		// the tuples come in clustering key order, so those of a page follow
+		// each other
+		int last = -1;
+		for (Tuple tuple : found) {
+			int i = findPageMightContainTuple(tuple.getRecord(clusteringIndex));
+			if (i < 0 || i == last)
+				continue;
+
+			last = i;
 			Range oldRange = ranges.get(i);
-			page = Serializer.deserializeFrom(path);
-			int x = page.deleteHelper(records, this.columns, this.indices, false, this.clusteringColumn);
+			page = BufferPool.pin(tableName, pageIndices.get(i));
+			int x = page.deleteHelper(records, this.ordinals, this.indices, false, this.clusteringColumn,
+					file);
 			deleteFromPage(x, i, page, oldRange, pages, rangesToDelete);
 		}
-		this.pagesPath.removeAll(pages);
+		this.pageIndices.removeAll(pages);
 		this.ranges.removeAll(rangesToDelete);
-		Serializer.serializeTo(ranges, "Tables\\" + tableName + "\\ranges.class");
+		file.rangesChanged();
 	}
 
-	public void createIndex(String columnName, String indexName) throws DBAppException {
-		String indexPath = "Tables\\" + tableName + "\\" + indexName + ".ser";
-		indices.put(columnName, indexPath);
-		BTreePlus tree = new BTreePlus();
-		int colIndex = getIndexOfColumn(columnName);
-		for (String path : pagesPath) {
-			Page p = Serializer.deserializeFrom(path);
-			int pIndex = p.getPageIndex();
-			for (Tuple tuple : p.getTuples()) {
-
-				tree.insert(tuple.getRecord(colIndex), pIndex);
-			}
+	// false when a Bloom filter of the page proves that no tuple has one of the
+	// values of records
+	private boolean bloomFiltersMightContain(int pageIndex, Hashtable<String, Object> records) {
+		for (Map.Entry<String, Object> record : records.entrySet()) {
+			BloomFilter filter = file.getBloomFilter(pageIndex, ordinals.get(record.getKey()));
+			if (filter != null && !filter.mightContain(record.getValue()))
+				return false;
 		}
-		tree.print();
-		Serializer.serializeTo(tree, indexPath);
+		return true;
 	}
 
-	public boolean columnIsIndexed(String columnName) {
-		return indices.containsKey(columnName);
-	}
-
-	private void handleBothGreaterThans(boolean orEqual, Comparable value,
-			int index, Range range, Vector<Tuple> result) throws DBAppException {
-		if (range.inRange(value)) {
-			if (!orEqual && range.equalsMax(value)) {
-				for (int i = index + 1; i < getPagesPath().size(); i++) {
-					Page page = Serializer.deserializeFrom(getPagesPath().elementAt(i));
-					result.addAll(page.getTuples());
-				}
-			} else {
-				for (int i = index; i < getPagesPath().size(); i++) {
-					Page page = Serializer.deserializeFrom(getPagesPath().elementAt(i));
-					if (i == index) {
-						int tupleIndex = Collections.binarySearch(page.getTuples(), new Tuple(value));
-
-						if (tupleIndex < 0)
-							tupleIndex = -tupleIndex - 1;
-						else if (!orEqual)
-							tupleIndex++;
-
-						if (tupleIndex == page.getTuples().size())
-							continue;
-
-						Vector<Tuple> tuples = page.getTuples();
-
-						for (int j = tupleIndex; j < tuples.size(); j++) {
-							result.add(tuples.get(j));
-						}
-					} else {
-						result.addAll(page.getTuples());
-					}
-
-				}
-			}
-		} else {
-			if (range.isLessThanEqualMin(value)) {
-				for (int i = index; i < getPagesPath().size(); i++) {
-					Page page = Serializer.deserializeFrom(getPagesPath().elementAt(i));
-					result.addAll(page.getTuples());
-				}
-			}
+	private void countFalsePositives(Page page, Hashtable<String, Object> records) {
+		for (Map.Entry<String, Object> record : records.entrySet()) {
+			int column = ordinals.get(record.getKey());
+			if (file.getBloomFilter(page.getPageIndex(), column) == null)
+				continue;
 
+			boolean found = false;
+			for (Tuple tuple : page.getTuples())
+				found |= tuple.getRecord(column).equals(record.getValue());
+			if (!found)
+				BloomFilter.falsePositive();
 		}
-
 	}
 
-	private void handleBothLessThans(boolean orEqual, Comparable value,
-			int index, Range range, Vector<Tuple> result) throws DBAppException {
-
-		if (range.inRange(value)) {
-			if (!orEqual && range.isLessThanEqualMin(value))
-				index--;
-			if (index >= 0) {
-				for (int i = 0; i <= index; i++) {
-					Page page = Serializer.deserializeFrom(getPagesPath().elementAt(i));
-					if (i == index) {
-						int tupleIndex = Collections.binarySearch(page.getTuples(), new Tuple(value));
-
-						if (!orEqual && tupleIndex >= 0)
-							tupleIndex--;
-						else if (tupleIndex < 0)
-							tupleIndex = -tupleIndex - 1 - 1;
-
-						if (tupleIndex == page.getTuples().size())
-							tupleIndex--;
-
-						Vector<Tuple> tuples = page.getTuples();
+	// the (key, clustering key) pairs of every tuple are sorted and the tree is built
+	// bottom-up from them instead of inserting one key at a time
+	public void createIndex(String columnName, String indexName, int order) throws DBAppException {
+		String indexPath = "Tables\\" + tableName + "\\" + indexName + ".ser";
+		indices.put(columnName, indexPath);
+		int colIndex = getIndexOfColumn(columnName);
 
-						for (int j = 0; j <= tupleIndex; j++) {
-							result.add(tuples.get(j));
-						}
-					} else {
-						result.addAll(page.getTuples());
-					}
-				}
-			}
-		} else {
-			if (range.isLessThanEqualMin(value))
-				index--;
-			if (!(index < 0)) {
-				for (int i = 0; i <= index; i++) {
-					Page page = Serializer.deserializeFrom(getPagesPath().elementAt(i));
-					result.addAll(page.getTuples());
-				}
-			}
+		Vector<Pair<Comparable, Object>> entries = new Vector<>();
+		for (int pageIndex : pageIndices) {
+			Page p = BufferPool.fetch(tableName, pageIndex);
+			for (Tuple tuple : p.getTuples())
+				entries.add(new Pair<>(tuple.getRecord(colIndex), tuple.getRecord(clusteringIndex)));
 		}
-	}
-
-	private void handleNotEqualCK(Comparable value, Vector<Tuple> result) throws DBAppException {
-		for (String pagePath : getPagesPath()) {
-			Page page = Serializer.deserializeFrom(pagePath);
-			result.addAll(page.getTuples());
+		entries.sort((entry1, entry2) -> entry1.getFirst().compareTo(entry2.getFirst()));
+
+		Vector<Comparable> keys = new Vector<>();
+		Vector<PostingList> values = new Vector<>();
+		for (Pair<Comparable, Object> entry : entries) {
+			if (keys.isEmpty() || keys.lastElement().compareTo(entry.getFirst()) != 0) {
+				keys.add(entry.getFirst());
+				values.add(new PostingList());
+			}
+			values.lastElement().add(entry.getSecond());
 		}
 
-		int toRemove = Collections.binarySearch(result, new Tuple(value));
-		if (toRemove >= 0)
-			result.remove(toRemove);
+		file.putIndex(indexPath, BTreePlus.build(keys, values, order, file.getIndexPages()));
 	}
 
-	public void selectUnIndexedCK(Comparable value, int index, Range range,
-			String operator, Vector<Tuple> result) throws DBAppException {
-		switch (operator) {
-			case "=":
-
-				if (range.inRange(value)) {
-					Page page = Serializer.deserializeFrom(getPagesPath().get(index));
-
-					int tupleIndex = Collections.binarySearch(page.getTuples(), new Tuple(value));
-					if (tupleIndex >= 0)
-						result.add(page.getTuples().elementAt(tupleIndex));
-				}
-				break;
-
-			case "!=":
-				handleNotEqualCK(value, result);
-				break;
-			case ">":
-				handleBothGreaterThans(false, value, index, range, result);
-				break;
-			case ">=":
-				handleBothGreaterThans(true, value, index, range, result);
-				break;
-			case "<":
-				handleBothLessThans(false, value, index, range, result);
-				break;
-			case "<=":
-				handleBothLessThans(true, value, index, range, result);
-				break;
-		}
-
+	public boolean columnIsIndexed(String columnName) {
+		return indices.containsKey(columnName);
 	}
 
-	public void selectIndexedCol(Comparable value,
-			String operator, BTreePlus tree, String columnName, Vector<Tuple> result) throws DBAppException {
-
-		int columnIndex = getIndexOfColumn(columnName);
-		Vector<Pair<Object, Object>> tempResult;
-		Vector<String> paths = new Vector<>();
-		switch (operator) {
-
-			case "=":
-				Vector<Object> temp = tree.search(value, false); // for the same key we might get the same page number
-																	// aktar mn marra
-				for (Object distinctValue : temp) {
-					int i = (int) distinctValue;
-					String path = Page.getPagePath(this.tableName, i);
-					paths.add(path);		
-				}
-				
-				selectUnIndexedCol(paths, value, columnName, "=", result);
-
-				break;
-
-			case "!=":
-				if (columnName.equals(clusteringColumn))
-					handleNotEqualCK(value, result);
-				else
-					for (String pagePath : pagesPath) {
-						Page page = Serializer.deserializeFrom(pagePath);
-						for (Tuple tuple : page.getTuples()) {
-							if (!tuple.getRecord(columnIndex).equals(value))
-								result.add(tuple);
-						}
-					}
-				break;
-
-			case ">":
-			case ">=":
-			case "<=":
-			case "<":
-
-				tempResult = tree.searchOperator(value, operator, false);
-				Set<String> set = new HashSet<>();
-				for (Pair pair : tempResult) {
-
-					Vector<Integer> pageIndices = (Vector<Integer>) pair.getSecond(); // page1, page2, page3, page4
-					for (int pageIndex : pageIndices)
-						set.add(Page.getPagePath(this.tableName, pageIndex));
-				}
-
-				selectUnIndexedCol(new Vector<String>(set), value, columnName, operator, result);
-
-		}
-
+	// the index of columnName, null if it has none
+	public BTreePlus getIndex(String columnName) throws DBAppException {
+		String path = indices.get(columnName);
+		return path == null ? null : file.getIndex(path);
 	}
 
-	public static boolean satisfiesOperator(Object object, Object toCompare, String operator) throws DBAppException {
-		int diff = ((Comparable) object).compareTo(toCompare);
-		switch (operator) {
-			case "=":
-				return diff == 0;
-			case "!=":
-				return diff != 0;
-			case ">=":
-				return diff >= 0;
-			case ">":
-				return diff > 0;
-			case "<=":
-				return diff <= 0;
-			case "<":
-				return diff < 0;
-		}
+	// adds the tuples of a page whose value of the column filter matches to
+	// result. filter is compiled once by the caller for the column's type,
+	// and equalTo is the value the column must equal, if the filter is only
+	// that, for the bloom filters
+	private void scanColumn(int pageIndex, int columnIndex, Filter.ColumnFilter filter, Comparable equalTo,
+			List<Tuple> result) throws DBAppException {
+		// pages whose zone map rules a value out are not read at all
+		ZoneMap zoneMap = file.getZoneMap(pageIndex);
+		if (zoneMap != null && !filter.mightMatch(zoneMap))
+			return;
 
-		throw new DBAppException("Wrong operator");
+		// and so are pages whose bloom filter does not have it
+		BloomFilter bloomFilter = equalTo != null ? file.getBloomFilter(pageIndex, columnIndex) : null;
+		if (bloomFilter != null && !bloomFilter.mightContain(equalTo))
+			return;
+		int found = result.size();
+
+		Page page = BufferPool.peek(tableName, pageIndex);
+
+		// pax pages that are not cached are filtered on the column minipage
+		// alone and only the matching rows are decoded
+		if (page == null && file.getLayout() == PageFormat.PAX_LAYOUT) {
+			ByteBuffer buffer = file.readPage(pageIndex);
+			Comparable<?>[] column = PageFormat.readColumn(buffer, columnIndex);
+			for (int slot = 0; slot < column.length; slot++) {
+				if (filter.matchesValue(column[slot]))
+					result.add(PageFormat.decodeTuple(buffer, slot));
+			}
+		} else {
+			select(page != null ? page.getTuples() : scannedPage(pageIndex).getTuples(), filter, result);
+		}
+		if (bloomFilter != null && result.size() == found)
+			BloomFilter.falsePositive();
 	}
 
-	// Linear search all pages
-	public void selectUnIndexedCol(Vector<String> paths, Comparable value, String columnName,
-			String operator, Vector<Tuple> result) throws DBAppException {
+	// a page read by a scan. a scan thread decodes a page that is not cached
+	// from the file itself, see ParallelScan
+	private Page scannedPage(int pageIndex) throws DBAppException {
+		if (!ParallelScan.inPool())
+			return BufferPool.fetch(tableName, pageIndex);
 
-		for (String pagePath : paths) {
-			Page page = Serializer.deserializeFrom(pagePath);
-			int columnIndex = getIndexOfColumn(columnName);
-			for (Tuple tuple : page.getTuples()) {
-				boolean satisfies = satisfiesOperator(tuple.getRecord(columnIndex), value, operator);
-				if (satisfies)
-					result.add(tuple);
-			}
-		}
+		Page page = BufferPool.peek(tableName, pageIndex);
+		return page != null ? page : PageFormat.decode(file.readPage(pageIndex));
 	}
 
 	public void update(String strClusteringKeyValue,
@@ -696,67 +717,301 @@ public class Table {
 		}
 
 		// get the page, deserialize, update and serialize
-		String path = pagesPath.get(index);
-		// deserializing the page that contains the tuple
-		Page p = Serializer.deserializeFrom(path);
+		int pageIndex = pageIndices.get(index);
+		// getting the page that contains the tuple from the buffer pool
+		Page p = BufferPool.pin(tableName, pageIndex);
 		Tuple tempTuple = new Tuple(tcStrClusteringKeyValue);
 		int tupleIndex = Collections.binarySearch(p.getTuples(), tempTuple);
 
 		// check all the hashtable keys and values, and update the table and
 		// corresponding BTree if exists
-		for (Map.Entry<String, Object> entry : records.entrySet()) { // pair feeh esm el table w el new value
-			String columnName = entry.getKey(); // column name
-			Object newValue = entry.getValue(); // the new value
-
-			int entryIndex = getIndexOfColumn(columnName); // getting the index of the cell , use it inside the tuple
-
-			if (tupleIndex >= 0) {
-				Tuple tuple = p.getTuples().get(tupleIndex);
-				Object oldvalue = tuple.getRecord(entryIndex);
+		if (tupleIndex >= 0) {
+			Tuple tuple = p.getTuples().get(tupleIndex);
+			for (Map.Entry<String, Object> entry : records.entrySet()) { // pair feeh esm el table w el new value
+				String columnName = entry.getKey(); // column name
+				Object oldvalue = tuple.getRecord(getIndexOfColumn(columnName));
 				if (columnIsIndexed(columnName)) {
 					String bpath = indices.get(columnName);
-					BTreePlus btree = Serializer.deserializeFrom(bpath);
-					btree.update(oldvalue, newValue, p.getPageIndex());
-					Serializer.serializeTo(btree, bpath);
+					BTreePlus btree = file.getIndex(bpath);
+					btree.update(oldvalue, entry.getValue(), tcStrClusteringKeyValue);
+					file.indexChanged(bpath);
 				}
+			}
 
-				tuple.setRecord(newValue, entryIndex);
+			// readers copy the tuples of a page under its vector's lock, so
+			// they see the row either before or after the whole update
+			synchronized (p.getTuples()) {
+				for (Map.Entry<String, Object> entry : records.entrySet())
+					tuple.setRecord(entry.getValue(), getIndexOfColumn(entry.getKey()));
 			}
+			file.addTuple(pageIndex, tuple);
 		}
-		Serializer.serializeTo(p, path);
+		BufferPool.unpin(tableName, pageIndex, true);
 		return;
 
 	}
 
-	public Vector<Tuple> selectFromTable(String columnName,
-			String operator, Comparable value) throws DBAppException {
-		Vector<Tuple> result = new Vector<>();
+	// the tuples whose value of columnName is from lower to upper in clustering
+	// key order, a null bound leaves that side open. a range of the clustering
+	// column reads the pages from the one of lower to the first key past upper,
+	// one of an indexed column reads only the rows of the keys in between, and
+	// a scan of any other column skips the pages whose zone map rules out
+	// either bound. pages are read as the tuples are asked for
+	public TupleIterator openRange(String columnName, Comparable lower, boolean lowerInclusive,
+			Comparable upper, boolean upperInclusive) throws DBAppException {
+		if (columnName.equals(clusteringColumn))
+			return openClusteringRange(lower, lowerInclusive, upper, upperInclusive);
+
+		if (columnIsIndexed(columnName)) {
+			BTreePlus tree = file.getIndex(indices.get(columnName));
+			return openKeys(tree.searchPostings(lower, lowerInclusive, upper, upperInclusive));
+		}
 
-		if (pagesPath.size() == 0)
-			return result;
+		Vector<Comparable> values = new Vector<>();
+		Vector<String> operators = new Vector<>();
+		if (lower != null) {
+			values.add(lower);
+			operators.add(lowerInclusive ? ">=" : ">");
+		}
+		if (upper != null) {
+			values.add(upper);
+			operators.add(upperInclusive ? "<=" : "<");
+		}
+		return openColumnScan(columnName, values.toArray(new Comparable[0]), operators.toArray(new String[0]));
+	}
 
-		if (columnName.equals(clusteringColumn)) {
-			int index = Collections.binarySearch(getRanges(), new Range(value, value, false));
+	// a scan of the tuples whose value of columnName satisfies every one of
+	// operators with the value at the same position
+	public TupleIterator openColumnScan(String columnName, Comparable[] values, String[] operators) {
+		int columnIndex = getIndexOfColumn(columnName);
+		ArrayList<Filter.ColumnFilter> filters = new ArrayList<>();
+		for (int i = 0; i < operators.length; i++)
+			filters.add(Filter.compare(columnIndex, operators[i], values[i]));
+		Filter.ColumnFilter filter = Filter.columnAnd(filters);
+		Comparable equalTo = operators.length == 1 && operators[0].equals("=") ? values[0] : null;
+
+		return new PageScan(null, false, null, false, true) {
+			protected void read(int pageIndex, List<Tuple> tuples) throws DBAppException {
+				scanColumn(pageIndex, columnIndex, filter, equalTo, tuples);
+			}
+		};
+	}
 
-			if (index < 0)
-				index = -index - 1;
+	// a scan of the tuples filter matches. pages whose zone map rules the
+	// filter out are not read
+	public TupleIterator openScan(Filter filter) {
+		return new PageScan(null, false, null, false, true) {
+			protected void read(int pageIndex, List<Tuple> tuples) throws DBAppException {
+				ZoneMap zoneMap = file.getZoneMap(pageIndex);
+				if (zoneMap != null && !filter.mightMatch(zoneMap))
+					return;
 
-			if (index == getRanges().size())
-				index--;
+				select(scannedPage(pageIndex).getTuples(), filter, tuples);
+			}
+		};
+	}
 
-			Range range = getRanges().get(index);
-			selectUnIndexedCK(value, index, range, operator, result);
-		} else {
-			if (columnIsIndexed(columnName)) {
-				BTreePlus tree = Serializer.deserializeFrom(indices.get(columnName));
-				selectIndexedCol(value, operator, tree, columnName, result);
+	private TupleIterator openClusteringRange(Comparable lower, boolean lowerInclusive, Comparable upper,
+			boolean upperInclusive) {
+		return new PageScan(lower, lowerInclusive, upper, upperInclusive, false) {
+			protected void read(int pageIndex, List<Tuple> tuples) throws DBAppException {
+				Vector<Tuple> page = BufferPool.fetch(tableName, pageIndex).getTuples();
+				synchronized (page) {
+					for (int i = 0; i < page.size(); i++)
+						tuples.add(page.get(i).copy());
+				}
+			}
+		};
+	}
+
+	// the tuples with the given clustering keys, which come sorted. every key
+	// is looked up under the lock writers hold, so the ranges, the page
+	// indices and the page are seen at the same moment, and the tuple found
+	// is copied before the lock is let go
+	private TupleIterator openKeys(PostingList clusteringKeys) {
+		Iterator<Object> keys = clusteringKeys.iterator();
+		return new TupleIterator() {
+			protected Tuple advance() throws DBAppException {
+				while (keys.hasNext()) {
+					Object clusteringKey = keys.next();
+					synchronized (WriteAheadLog.class) {
+						int index = findPageMightContainTuple(clusteringKey);
+						if (index < 0)
+							continue;
+
+						Vector<Tuple> page = BufferPool.fetch(tableName, pageIndices.get(index)).getTuples();
+						int slot = Collections.binarySearch(page, new Tuple(clusteringKey));
+						if (slot >= 0)
+							return page.get(slot).copy();
+					}
+				}
+				return null;
+			}
+		};
+	}
+
+	// goes through the pages in clustering key order, keeping the tuples read
+	// from one page at a time, or from a run of pages split across the scan
+	// threads for a parallel scan. where it is comes from the clustering keys
+	// rather than a page number, the largest key of the last page read, so
+	// pages split or merged between two calls are neither read twice nor
+	// skipped. only tuples between the clustering bounds are returned, and
+	// the pages past upper are not read
+	private abstract class PageScan extends TupleIterator {
+		private final Comparable lower;
+		private final boolean lowerInclusive;
+		private final Comparable upper;
+		private final boolean upperInclusive;
+		private final Tuple lowerKey;
+		private final Tuple upperKey;
+		private final int batchSize;
+
+		private Object after; // null before the first page
+		private Tuple floor; // the tuples read are past this key
+		private boolean done;
+		private ArrayList<Tuple> tuples = new ArrayList<>();
+		private int position;
+
+		PageScan(Comparable lower, boolean lowerInclusive, Comparable upper, boolean upperInclusive,
+				boolean parallel) {
+			this.lower = lower;
+			this.lowerInclusive = lowerInclusive;
+			this.upper = upper;
+			this.upperInclusive = upperInclusive;
+			this.lowerKey = lower == null ? null : new Tuple(lower);
+			this.upperKey = upper == null ? null : new Tuple(upper);
+			this.batchSize = parallel ? ParallelScan.batchSize() : 1;
+		}
+
+		// adds the tuples of a page the scan keeps to tuples, in order
+		protected abstract void read(int pageIndex, List<Tuple> tuples) throws DBAppException;
+
+		protected Tuple advance() throws DBAppException {
+			while (true) {
+				while (position < tuples.size()) {
+					Tuple tuple = tuples.get(position++);
+					if (keeps(tuple))
+						return tuple;
+				}
+				if (done)
+					return null;
+
+				// the pages of a batch are found and copied under the lock
+				// writers hold, so ranges and pageIndices are seen together
+				ArrayList<Integer> pages;
+				synchronized (WriteAheadLog.class) {
+					int first = after == null ? firstPageReaching(lower) : firstPageAfter(after);
+					int end = first;
+					while (end < ranges.size() && end - first < batchSize
+							&& (upper == null || !pastUpper(ranges.get(end).min, upper, upperInclusive)))
+						end++;
+					if (end == first) {
+						done = true;
+						return null;
+					}
+
+					floor = after == null ? null : new Tuple(after);
+					after = ranges.get(end - 1).max;
+					pages = new ArrayList<>(pageIndices.subList(first, end));
+				}
 
-			} else {
-				selectUnIndexedCol(pagesPath, value, columnName, operator, result);
+				tuples.clear();
+				position = 0;
+				if (pages.size() == 1)
+					read(pages.get(0), tuples);
+				else
+					ParallelScan.scan(pages, this::read, tuples);
 			}
+		}
 
+		// compared as tuples, so the keys are not boxed
+		private boolean keeps(Tuple tuple) {
+			if (floor != null && tuple.compareTo(floor) <= 0)
+				return false;
+			if (lowerKey != null) {
+				int diff = tuple.compareTo(lowerKey);
+				if (diff < 0 || (diff == 0 && !lowerInclusive))
+					return false;
+			}
+			if (upperKey != null) {
+				int diff = tuple.compareTo(upperKey);
+				return diff < 0 || (diff == 0 && upperInclusive);
+			}
+			return true;
 		}
 
-		return result;
+		protected void release() {
+			done = true;
+			tuples = new ArrayList<>();
+		}
+	}
+
+	// the number of pages a range of the clustering column covers, without
+	// reading any
+	public int countPagesInRange(Comparable lower, Comparable upper, boolean upperInclusive) {
+		int first = firstPageReaching(lower);
+		int end = first;
+		if (upper == null)
+			return pageIndices.size() - first;
+
+		// the first page starting past upper
+		int last = ranges.size();
+		while (end < last) {
+			int middle = (end + last) >>> 1;
+			if (pastUpper(ranges.get(middle).min, upper, upperInclusive))
+				last = middle;
+			else
+				end = middle + 1;
+		}
+		return end - first;
+	}
+
+	// the first page whose range reaches lower, the first page for null
+	private int firstPageReaching(Comparable lower) {
+		int first = 0;
+		if (lower != null) {
+			int last = ranges.size();
+			while (first < last) {
+				int middle = (first + last) >>> 1;
+				if (ranges.get(middle).isLessThanEqualMax(lower))
+					last = middle;
+				else
+					first = middle + 1;
+			}
+		}
+		return first;
+	}
+
+	// the first page whose range goes past key
+	private int firstPageAfter(Object key) {
+		int first = 0;
+		int last = ranges.size();
+		while (first < last) {
+			int middle = (first + last) >>> 1;
+			if (ranges.get(middle).isGreaterThanEqualMax(key))
+				first = middle + 1;
+			else
+				last = middle;
+		}
+		return first;
+	}
+
+	// adds copies of the tuples of a page filter matches to result. the
+	// page's vector is locked once around the loop, as its own lock taken for
+	// every tuple costs more than checking the tuple, and update changes a
+	// tuple under the same lock
+	private static void select(Vector<Tuple> tuples, Filter filter, List<Tuple> result) {
+		synchronized (tuples) {
+			for (int i = 0; i < tuples.size(); i++) {
+				Tuple tuple = tuples.get(i);
+				if (filter.matches(tuple))
+					result.add(tuple.copy());
+			}
+		}
+	}
+
+	private static boolean pastUpper(Object value, Comparable upper, boolean upperInclusive) {
+		int diff = ((Comparable) value).compareTo(upper);
+		return diff > 0 || (diff == 0 && !upperInclusive);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,734 @@
+package engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Vector;
+
+import BTree.BTreePlus;
+import BTree.PageStore;
+
+// All pages of a table live in one file, Tables\<table>\<table>.data, made of
+// fixed size slots that are accessed through memory mappings of up to 1 GB
+// each, so a file is not limited to what one mapping can hold. The page
+// directory (directory.class) maps every page index to the slots holding it
+// and keeps the page indices in clustering order, the same order as ranges.
+// Pages are written copy-on-write: every write goes to free slots and the old
+// slots are only reused once a checkpoint has installed a directory that no
+// longer points to them. The file itself grows a whole extent at a time.
+//
+// The slot size of a table is chosen when it is created and kept in its
+// directory. PageSizeInBytes sets it; 0, the default, sizes it for a page of
+// MaximumRowsCountinPage rows of about 64 bytes, so a page usually fills one
+// slot rather than a small part of it. A page or index node larger than a
+// slot takes several consecutive ones. Tables created before the slot size
+// was kept have 64 KB slots.
+//
+// The ranges, the zone maps and Bloom filters of the pages and the B+ tree
+// indexes of the table are cached here as well and only written back by a
+// flush. The log checkpoint splits it into snapshotAll,
+// taken while operations are held back, and writeAll.
+//
+// The nodes of the indexes are pages of the data file as well, with page
+// indices from the same counter as the table's pages but never listed in
+// getPageIndices. An index file only holds the page index of the root.
+public class TableFile {
+    // slot size of new tables, 0 to size it from Page.maxRowCount
+    public static int pageSize = 0;
+    public static int extentPageCount = 16;
+
+    private static final int LEGACY_SLOT_SIZE = 65536;
+    private static final int MIN_SLOT_SIZE = 4096;
+    private static final int BYTES_PER_ROW = 64;
+    private static final int CHUNK_SIZE = 1 << 30;
+
+    private static final String CHECKPOINT_PATH = "Tables\\checkpoint.lst";
+
+    // value format of the indexes: the values under a key are the clustering
+    // keys of its tuples. format 0 indexes held the page numbers of the tuples
+    private static final int CLUSTERING_KEY_ENTRIES = 1;
+
+    private static final Hashtable<String, TableFile> openFiles = new Hashtable<>();
+
+    private final String tableName;
+    private final FileChannel channel;
+    private final int slotSize;
+    private final int chunkSlots; // slots per mapped chunk
+    private final Vector<MappedByteBuffer> chunks = new Vector<>();
+    private int capacity; // slots available in the file
+    private final PageDirectory directory;
+    private boolean directoryDirty;
+    private final Vector<Integer> retiredSlots = new Vector<>(); // freed since the last snapshot
+
+    private final Vector<Range> ranges;
+    private boolean rangesDirty;
+    private final Hashtable<Integer, ZoneMap> zoneMaps;
+    private boolean zoneMapsDirty;
+    private final BloomFilters bloomFilters;
+    private boolean bloomFiltersDirty;
+    private final Hashtable<String, BTreePlus> indexes = new Hashtable<>();
+    private final Vector<String> dirtyIndexes = new Vector<>();
+    private final IndexPages indexPages = new IndexPages();
+
+    private static class PageDirectory implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Vector<Integer> pageIndices = new Vector<>();
+        private final Hashtable<Integer, int[]> locations = new Hashtable<>(); // {first slot, slots, bytes}
+        private final Vector<Integer> freeSlots = new Vector<>();
+        private int usedSlots;
+        private int nextPageIndex = 1;
+        private byte layout = PageFormat.ROW_LAYOUT;
+        private byte codec = Codec.NONE.getId();
+        private int slotSize; // 0 in directories written before it was kept
+    }
+
+    // the columns chosen for Bloom filters and the filters of every page, by
+    // page index and then column ordinal
+    private static class BloomFilters implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Vector<Integer> columns = new Vector<>();
+        private final Hashtable<Integer, Hashtable<Integer, BloomFilter>> pages = new Hashtable<>();
+    }
+
+    // the data file seen as the page store of the indexes. a page that cannot
+    // be read or written fails the index operation with an unchecked exception
+    private class IndexPages implements PageStore {
+        public int newPageIndex() {
+            return TableFile.this.newPageIndex();
+        }
+
+        public ByteBuffer readPage(int pageIndex) {
+            try {
+                return TableFile.this.readPage(pageIndex);
+            } catch (DBAppException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        public void writePage(int pageIndex, byte[] data) {
+            try {
+                TableFile.this.writePage(pageIndex, data);
+            } catch (DBAppException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        public void freePage(int pageIndex) {
+            TableFile.this.freePage(pageIndex);
+        }
+    }
+
+    private TableFile(String tableName) throws DBAppException {
+        this.tableName = tableName;
+
+        File dataFile = new File(getDataPath(tableName));
+        boolean exists = dataFile.exists();
+        boolean directoryExists = new File(getDirectoryPath(tableName)).exists();
+
+        if (directoryExists) {
+            directory = Serializer.deserializeFrom(getDirectoryPath(tableName));
+            if (directory.slotSize == 0)
+                directory.slotSize = LEGACY_SLOT_SIZE;
+        } else {
+            directory = new PageDirectory();
+            directory.slotSize = defaultSlotSize();
+            directoryDirty = true;
+        }
+        slotSize = directory.slotSize;
+        chunkSlots = Math.max(1, CHUNK_SIZE / slotSize);
+
+        try {
+            channel = FileChannel.open(Paths.get(dataFile.getPath()), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            capacity = (int) (channel.size() / slotSize);
+            mapSlots(capacity);
+        } catch (IOException e) {
+            throw new DBAppException("Could not open table file");
+        }
+
+        if (new File(getBloomFiltersPath(tableName)).exists())
+            bloomFilters = Serializer.deserializeFrom(getBloomFiltersPath(tableName));
+        else
+            bloomFilters = new BloomFilters();
+
+        boolean zoneMapsExist = new File(getZoneMapsPath(tableName)).exists();
+        if (zoneMapsExist)
+            zoneMaps = Serializer.deserializeFrom(getZoneMapsPath(tableName));
+        else
+            zoneMaps = new Hashtable<>();
+
+        if (directoryExists) {
+            if (!zoneMapsExist)
+                buildZoneMaps();
+        } else if (!exists) {
+            importPageFiles();
+        }
+
+        if (new File(getRangesPath(tableName)).exists())
+            ranges = Serializer.deserializeFrom(getRangesPath(tableName));
+        else
+            ranges = new Vector<>();
+    }
+
+    public static synchronized TableFile open(String tableName) throws DBAppException {
+        TableFile file = openFiles.get(tableName);
+        if (file == null) {
+            file = new TableFile(tableName);
+            openFiles.put(tableName, file);
+        }
+        return file;
+    }
+
+    // a slot that holds a page of Page.maxRowCount rows of BYTES_PER_ROW
+    // bytes, rounded up to a power of two
+    private static int defaultSlotSize() {
+        if (pageSize > 0)
+            return pageSize;
+
+        long bytes = (long) Page.maxRowCount * BYTES_PER_ROW;
+        int size = MIN_SLOT_SIZE;
+        while (size < bytes && size < CHUNK_SIZE)
+            size <<= 1;
+        return size;
+    }
+
+    public static String getDataPath(String tableName) {
+        return "Tables\\" + tableName + "\\" + tableName + ".data";
+    }
+
+    public static String getDirectoryPath(String tableName) {
+        return "Tables\\" + tableName + "\\directory.class";
+    }
+
+    public static String getRangesPath(String tableName) {
+        return "Tables\\" + tableName + "\\ranges.class";
+    }
+
+    public static String getZoneMapsPath(String tableName) {
+        return "Tables\\" + tableName + "\\zonemaps.class";
+    }
+
+    public static String getBloomFiltersPath(String tableName) {
+        return "Tables\\" + tableName + "\\blooms.class";
+    }
+
+    // page indices in clustering order, Table keeps this vector in step with
+    // its ranges
+    public Vector<Integer> getPageIndices() {
+        return directory.pageIndices;
+    }
+
+    // min and max clustering key of every page, in the order of getPageIndices.
+    // callers that change the vector call rangesChanged
+    public Vector<Range> getRanges() {
+        return ranges;
+    }
+
+    public synchronized void rangesChanged() {
+        rangesDirty = true;
+    }
+
+    // zone map of the page, null if it is not known yet and the page cannot
+    // be skipped
+    public synchronized ZoneMap getZoneMap(int pageIndex) {
+        return zoneMaps.get(pageIndex);
+    }
+
+    // widens the zone map and adds to the Bloom filters of the page for a
+    // tuple that was inserted or updated in it
+    public synchronized void addTuple(int pageIndex, Tuple tuple) {
+        ZoneMap zoneMap = zoneMaps.get(pageIndex);
+        if (zoneMap == null)
+            zoneMaps.put(pageIndex, ZoneMap.of(tuple));
+        else
+            zoneMap.add(tuple);
+        zoneMapsDirty = true;
+
+        addToBloomFilters(pageIndex, tuple);
+    }
+
+    private void addToBloomFilters(int pageIndex, Tuple tuple) {
+        if (bloomFilters.columns.isEmpty())
+            return;
+
+        Hashtable<Integer, BloomFilter> filters = bloomFilters.pages.get(pageIndex);
+        if (filters == null) {
+            filters = new Hashtable<>();
+            bloomFilters.pages.put(pageIndex, filters);
+        }
+        for (int column : bloomFilters.columns) {
+            BloomFilter filter = filters.get(column);
+            if (filter == null) {
+                filter = new BloomFilter(tuple.getFormat().getType(column));
+                filters.put(column, filter);
+            }
+            filter.add(tuple.getRecord(column));
+        }
+        bloomFiltersDirty = true;
+    }
+
+    // Bloom filter of a column of the page, null if the column has none
+    public synchronized BloomFilter getBloomFilter(int pageIndex, int column) {
+        Hashtable<Integer, BloomFilter> filters = bloomFilters.pages.get(pageIndex);
+        return filters == null ? null : filters.get(column);
+    }
+
+    // the columns, by ordinal, whose pages get Bloom filters. only set while
+    // the table has no pages yet
+    public synchronized void setBloomFilterColumns(Vector<Integer> columns) {
+        bloomFilters.columns.clear();
+        bloomFilters.columns.addAll(columns);
+        bloomFiltersDirty = true;
+    }
+
+    // the index stored at path, its header is read from disk the first time
+    // it is used and its nodes as lookups reach them. callers that change the
+    // tree call indexChanged
+    public synchronized BTreePlus getIndex(String path) throws DBAppException {
+        BTreePlus tree = indexes.get(path);
+        if (tree == null) {
+            byte[] header = Codec.decompress(Serializer.readBytes(path));
+            if (!isCurrentIndex(header))
+                throw new DBAppException("Index " + path + " has to be built again");
+
+            tree = BTreePlus.open(header, indexPages);
+            indexes.put(path, tree);
+        }
+        return tree;
+    }
+
+    // whether the index at path was written as one serialized tree, before
+    // its nodes were pages of the data file, or holds page numbers instead of
+    // clustering keys
+    public synchronized boolean isLegacyIndex(String path) throws DBAppException {
+        if (indexes.containsKey(path) || !new File(path).exists())
+            return false;
+
+        return !isCurrentIndex(Codec.decompress(Serializer.readBytes(path)));
+    }
+
+    private static boolean isCurrentIndex(byte[] header) {
+        return BTreePlus.isHeader(header) && BTreePlus.getValueFormat(header) == CLUSTERING_KEY_ENTRIES;
+    }
+
+    // gives the nodes of a legacy index that has them in the data file back,
+    // before it is built again
+    public synchronized void freeLegacyIndex(String path) throws DBAppException {
+        byte[] header = Codec.decompress(Serializer.readBytes(path));
+        if (BTreePlus.isHeader(header))
+            BTreePlus.open(header, indexPages).free();
+    }
+
+    // where new indexes of the table keep their nodes
+    public PageStore getIndexPages() {
+        return indexPages;
+    }
+
+    public synchronized void putIndex(String path, BTreePlus tree) {
+        tree.setValueFormat(CLUSTERING_KEY_ENTRIES);
+        indexes.put(path, tree);
+        indexChanged(path);
+    }
+
+    public synchronized void indexChanged(String path) {
+        if (!dirtyIndexes.contains(path))
+            dirtyIndexes.add(path);
+    }
+
+    public byte getLayout() {
+        return directory.layout;
+    }
+
+    public synchronized void setLayout(byte layout) {
+        directory.layout = layout;
+        directoryDirty = true;
+    }
+
+    public Codec getCodec() throws DBAppException {
+        return Codec.forId(directory.codec);
+    }
+
+    public synchronized void setCodec(Codec codec) {
+        directory.codec = codec.getId();
+        directoryDirty = true;
+    }
+
+    public synchronized int newPageIndex() {
+        directoryDirty = true;
+        return directory.nextPageIndex++;
+    }
+
+    // zero-copy view of the encoded page inside the mapping, compressed pages
+    // are inflated into a heap buffer instead, outside the lock so threads
+    // scanning one table inflate their pages at the same time
+    public ByteBuffer readPage(int pageIndex) throws DBAppException {
+        ByteBuffer slice;
+        synchronized (this) {
+            int[] location = directory.locations.get(pageIndex);
+            if (location == null)
+                throw new DBAppException("Page " + pageIndex + " does not exist");
+
+            slice = slice(location[0], location[2]);
+        }
+        if (Codec.isCompressed(slice))
+            return ByteBuffer.wrap(Codec.decompress(slice));
+
+        return slice;
+    }
+
+    // a page is never written over the slots it had, the directory on disk
+    // may still point to them until the running checkpoint is installed
+    public synchronized void writePage(int pageIndex, byte[] data) throws DBAppException {
+        data = getCodec().compress(data);
+        int slots = (data.length + slotSize - 1) / slotSize;
+
+        int[] location = directory.locations.get(pageIndex);
+        if (location != null)
+            retire(location);
+
+        location = new int[] { allocate(slots), slots, data.length };
+        directory.locations.put(pageIndex, location);
+        put(location[0], data);
+    }
+
+    // the bytes starting at a slot, inside its chunk or copied together from
+    // the chunks they span
+    private ByteBuffer slice(int slot, int length) {
+        int chunk = slot / chunkSlots;
+        int offset = (slot % chunkSlots) * slotSize;
+        MappedByteBuffer mapped = chunks.get(chunk);
+        if (offset + length <= mapped.capacity())
+            return mapped.slice(offset, length);
+
+        byte[] bytes = new byte[length];
+        for (int done = 0; done < length; chunk++, offset = 0) {
+            mapped = chunks.get(chunk);
+            int count = Math.min(length - done, mapped.capacity() - offset);
+            mapped.get(offset, bytes, done, count);
+            done += count;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private void put(int slot, byte[] data) {
+        int chunk = slot / chunkSlots;
+        int offset = (slot % chunkSlots) * slotSize;
+        for (int done = 0; done < data.length; chunk++, offset = 0) {
+            MappedByteBuffer mapped = chunks.get(chunk);
+            int count = Math.min(data.length - done, mapped.capacity() - offset);
+            mapped.put(offset, data, done, count);
+            done += count;
+        }
+    }
+
+    // maps the first slots slots of the file, which grows to hold them. only
+    // the last chunk can be mapped short, it is mapped again once it grows
+    private void mapSlots(int slots) throws IOException {
+        int count = (slots + chunkSlots - 1) / chunkSlots;
+        for (int chunk = Math.max(0, chunks.size() - 1); chunk < count; chunk++) {
+            long size = (long) Math.min(chunkSlots, slots - chunk * chunkSlots) * slotSize;
+            if (chunk < chunks.size() && chunks.get(chunk).capacity() == size)
+                continue;
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunk * chunkSlots * slotSize,
+                    size);
+            if (chunk < chunks.size())
+                chunks.set(chunk, mapped);
+            else
+                chunks.add(mapped);
+        }
+    }
+
+    // not under the file's lock, operations go on while a checkpoint syncs
+    private void force() {
+        for (MappedByteBuffer mapped : new ArrayList<>(chunks))
+            mapped.force();
+    }
+
+    // writes the page and builds its zone map and Bloom filters again from its
+    // tuples, deletes only ever leave them wider than they have to be
+    public synchronized void writePage(Page page) throws DBAppException {
+        writePage(page.getPageIndex(), PageFormat.encode(page, directory.layout));
+
+        ZoneMap zoneMap = ZoneMap.of(page);
+        if (zoneMap == null)
+            zoneMaps.remove(page.getPageIndex());
+        else
+            zoneMaps.put(page.getPageIndex(), zoneMap);
+        zoneMapsDirty = true;
+
+        if (!bloomFilters.columns.isEmpty()) {
+            bloomFilters.pages.remove(page.getPageIndex());
+            for (Tuple tuple : page.getTuples())
+                addToBloomFilters(page.getPageIndex(), tuple);
+            bloomFiltersDirty = true;
+        }
+    }
+
+    // gives the slots of a deleted page back once the next checkpoint is
+    // installed, the caller removes the index from getPageIndices
+    public synchronized void freePage(int pageIndex) {
+        int[] location = directory.locations.remove(pageIndex);
+        if (location != null)
+            retire(location);
+        if (zoneMaps.remove(pageIndex) != null)
+            zoneMapsDirty = true;
+        if (bloomFilters.pages.remove(pageIndex) != null)
+            bloomFiltersDirty = true;
+        directoryDirty = true;
+    }
+
+    public void flush() throws DBAppException {
+        Snapshot snapshot = snapshot();
+        Hashtable<TableFile, Snapshot> snapshots = new Hashtable<>();
+        snapshots.put(this, snapshot);
+        writeAll(snapshots);
+        endCheckpoint(snapshots);
+    }
+
+    // the state of a table file taken by a checkpoint: the files to write,
+    // keyed by path, and the slots that become free once they are installed
+    public static class Snapshot {
+        private final Hashtable<String, byte[]> files = new Hashtable<>();
+        private final Vector<Integer> retiredSlots = new Vector<>();
+    }
+
+    // first half of a flush, run while no operation is being applied: the
+    // changed index nodes are copied into free slots, then the page directory,
+    // the ranges and the header of every dirty index into byte arrays
+    public Snapshot snapshot() throws DBAppException {
+        // the file is not held while the nodes are written, a lookup holds
+        // its index while it reads nodes from the file
+        Vector<Map.Entry<String, BTreePlus>> cached;
+        synchronized (this) {
+            cached = new Vector<>(indexes.entrySet());
+        }
+        for (Map.Entry<String, BTreePlus> index : cached)
+            if (index.getValue().writeDirtyNodes())
+                indexChanged(index.getKey());
+
+        synchronized (this) {
+            return snapshotFiles();
+        }
+    }
+
+    private Snapshot snapshotFiles() throws DBAppException {
+        Snapshot snapshot = new Snapshot();
+
+        if (directoryDirty) {
+            snapshot.files.put(getDirectoryPath(tableName), Serializer.serialize(directory, Codec.NONE));
+            directoryDirty = false;
+        }
+
+        if (rangesDirty) {
+            snapshot.files.put(getRangesPath(tableName), Serializer.serialize(ranges, Codec.NONE));
+            rangesDirty = false;
+        }
+
+        if (zoneMapsDirty) {
+            snapshot.files.put(getZoneMapsPath(tableName), Serializer.serialize(zoneMaps, Codec.NONE));
+            zoneMapsDirty = false;
+        }
+
+        if (bloomFiltersDirty) {
+            snapshot.files.put(getBloomFiltersPath(tableName), Serializer.serialize(bloomFilters, Codec.NONE));
+            bloomFiltersDirty = false;
+        }
+
+        for (String path : dirtyIndexes)
+            snapshot.files.put(path, indexes.get(path).getHeader());
+        dirtyIndexes.clear();
+
+        snapshot.retiredSlots.addAll(retiredSlots);
+        retiredSlots.clear();
+        return snapshot;
+    }
+
+    public static synchronized Hashtable<TableFile, Snapshot> snapshotAll() throws DBAppException {
+        Hashtable<TableFile, Snapshot> snapshots = new Hashtable<>();
+        for (TableFile file : openFiles.values())
+            snapshots.put(file, file.snapshot());
+        return snapshots;
+    }
+
+    // second half, which does the disk writes and may run while operations
+    // change the cached state again. the data files are synced and every file
+    // is written next to its target first; the checkpoint file then lists the
+    // targets and the files are renamed into place. a crash before the list is
+    // written leaves the previous checkpoint, one after it is finished by
+    // finishCheckpoint
+    public static void writeAll(Hashtable<TableFile, Snapshot> snapshots) throws DBAppException {
+        StringBuilder targets = new StringBuilder();
+        for (Map.Entry<TableFile, Snapshot> snapshot : snapshots.entrySet()) {
+            snapshot.getKey().force();
+
+            for (Map.Entry<String, byte[]> file : snapshot.getValue().files.entrySet()) {
+                Serializer.writeBytesDurably(file.getKey() + ".tmp", file.getValue());
+                targets.append(file.getKey()).append('\n');
+            }
+        }
+
+        if (targets.length() == 0)
+            return;
+
+        Serializer.writeBytesDurably(CHECKPOINT_PATH, targets.toString().getBytes(StandardCharsets.UTF_8));
+        finishCheckpoint();
+    }
+
+    // renames the files listed by an interrupted checkpoint into place, returns
+    // whether there was one
+    public static boolean finishCheckpoint() throws DBAppException {
+        if (!new File(CHECKPOINT_PATH).exists())
+            return false;
+
+        try {
+            for (String target : Files.readAllLines(Paths.get(CHECKPOINT_PATH), StandardCharsets.UTF_8)) {
+                Path staged = Paths.get(target + ".tmp");
+                if (Files.exists(staged))
+                    Files.move(staged, Paths.get(target), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            throw new DBAppException("Could not install checkpoint");
+        }
+        return true;
+    }
+
+    // the checkpoint is installed, slots retired before it can be reused
+    public static void endCheckpoint(Hashtable<TableFile, Snapshot> snapshots) {
+        new File(CHECKPOINT_PATH).delete();
+
+        for (Map.Entry<TableFile, Snapshot> snapshot : snapshots.entrySet()) {
+            TableFile file = snapshot.getKey();
+            synchronized (file) {
+                file.directory.freeSlots.addAll(snapshot.getValue().retiredSlots);
+                if (!snapshot.getValue().retiredSlots.isEmpty())
+                    file.directoryDirty = true;
+            }
+        }
+    }
+
+    public static synchronized void flushAll() throws DBAppException {
+        Hashtable<TableFile, Snapshot> snapshots = snapshotAll();
+        writeAll(snapshots);
+        endCheckpoint(snapshots);
+    }
+
+    // closes every table file, the next open reads them from disk again
+    public static synchronized void closeAll() throws DBAppException {
+        flushAll();
+        for (TableFile file : openFiles.values()) {
+            try {
+                file.channel.close();
+            } catch (IOException e) {
+                throw new DBAppException("Could not close table file");
+            }
+        }
+        openFiles.clear();
+    }
+
+    private void retire(int[] location) {
+        for (int slot = location[0]; slot < location[0] + location[1]; slot++)
+            retiredSlots.add(slot);
+        directoryDirty = true;
+    }
+
+    private int allocate(int slots) throws DBAppException {
+        directoryDirty = true;
+
+        if (slots == 1 && !directory.freeSlots.isEmpty())
+            return directory.freeSlots.removeLast();
+
+        if (slots > 1) {
+            Collections.sort(directory.freeSlots);
+            for (int i = 0; i + slots <= directory.freeSlots.size(); i++) {
+                int first = directory.freeSlots.get(i);
+                if (directory.freeSlots.get(i + slots - 1) == first + slots - 1) {
+                    directory.freeSlots.subList(i, i + slots).clear();
+                    return first;
+                }
+            }
+        }
+
+        int first = directory.usedSlots;
+        directory.usedSlots += slots;
+        if (directory.usedSlots > capacity)
+            grow(directory.usedSlots);
+        return first;
+    }
+
+    private void grow(int minimumSlots) throws DBAppException {
+        int extents = (minimumSlots + extentPageCount - 1) / extentPageCount;
+        capacity = extents * extentPageCount;
+
+        try {
+            mapSlots(capacity);
+        } catch (IOException e) {
+            throw new DBAppException("Could not grow table file");
+        }
+    }
+
+    // tables written before the single data file kept one <table><N>.class file
+    // per page; those pages are copied into the data file in clustering order
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void importPageFiles() throws DBAppException {
+        File[] files = new File("Tables\\" + tableName).listFiles();
+        if (files == null)
+            return;
+
+        Vector<Page> pages = new Vector<>();
+        Vector<File> imported = new Vector<>();
+        for (File file : files) {
+            if (!file.getName().matches(tableName + "[0-9]+[.]class"))
+                continue;
+
+            pages.add(Serializer.readPage(Serializer.readBytes(file.getPath())));
+            imported.add(file);
+        }
+
+        if (pages.isEmpty())
+            return;
+
+        pages.sort((page1, page2) -> ((Comparable) page1.getMin()).compareTo(page2.getMin()));
+        for (Page page : pages) {
+            writePage(page);
+            directory.pageIndices.add(page.getPageIndex());
+            directory.nextPageIndex = Math.max(directory.nextPageIndex, page.getPageIndex() + 1);
+        }
+        flush();
+
+        for (File file : imported)
+            file.delete();
+    }
+
+    // tables written before zone maps existed get them from one pass over
+    // their pages
+    private void buildZoneMaps() throws DBAppException {
+        for (int pageIndex : directory.pageIndices) {
+            ZoneMap zoneMap = ZoneMap.of(PageFormat.decode(readPage(pageIndex)));
+            if (zoneMap != null)
+                zoneMaps.put(pageIndex, zoneMap);
+        }
+        zoneMapsDirty = true;
+    }
+
+    public synchronized String getStatistics() {
+        return tableName + ": pages=" + directory.pageIndices.size() + ", slots=" + directory.usedSlots + "/"
+                + capacity + " of " + slotSize + " bytes, free=" + directory.freeSlots.size();
+    }
+}
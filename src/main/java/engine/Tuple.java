@@ -1,59 +1,196 @@
 package engine;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Hashtable;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Vector;
-import java.util.stream.Collectors;
 
 public class Tuple implements Serializable, Comparable<Tuple> {
-    private Vector<Comparable<?>> records;
-    
-    private int clusteringIndex;
+    // tuples are still serialized in the form older versions wrote them, a
+    // vector of the values and the clustering ordinal, see writeObject
+    private static final long serialVersionUID = -6914446840722616834L;
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("records", Vector.class),
+            new ObjectStreamField("clusteringIndex", int.class) };
 
-    public Tuple(Hashtable<String, Object> records, int clusteringIndex) {
-        this.records = new Vector<>();
-        this.clusteringIndex = clusteringIndex;
-        for (Object record : records.values())
-            this.records.add((Comparable<?>)record);
+    private transient RowFormat format;
+    private transient long[] numbers; // Integer and Double columns, see RowFormat
+    private transient String[] strings;
+
+    // an empty tuple, every column is set through its ordinal before use
+    public Tuple(RowFormat format) {
+        init(format);
+    }
+
+    // ordinals maps every column name of records to its ordinal in format
+    public Tuple(Hashtable<String, Object> records, RowFormat format, Hashtable<String, Integer> ordinals) {
+        this(format);
+        for (Map.Entry<String, Object> record : records.entrySet())
+            store(record.getValue(), ordinals.get(record.getKey()));
     }
 
+    // a search key holding only the clustering value
     public Tuple(Object clusteringObject) {
-        this.records = new Vector<>();
-        this.clusteringIndex = 0;
-        
-        records.add((Comparable<?>)clusteringObject);
+        this(RowFormat.ofKey(clusteringObject));
+        store(clusteringObject, 0);
+    }
+
+    private void init(RowFormat format) {
+        this.format = format;
+        this.numbers = new long[format.getNumberCount()];
+        this.strings = format.getStringCount() == 0 ? null : new String[format.getStringCount()];
+    }
+
+    public RowFormat getFormat() {
+        return format;
+    }
+
+    public int getInt(int index) {
+        return (int) numbers[format.getSlot(index)];
     }
 
+    public double getDouble(int index) {
+        return Double.longBitsToDouble(numbers[format.getSlot(index)]);
+    }
+
+    public String getString(int index) {
+        return strings[format.getSlot(index)];
+    }
+
+    public void setInt(int index, int value) {
+        numbers[format.getSlot(index)] = value;
+    }
+
+    public void setDouble(int index, double value) {
+        numbers[format.getSlot(index)] = Double.doubleToRawLongBits(value);
+    }
+
+    public void setString(int index, String value) {
+        strings[format.getSlot(index)] = value;
+    }
+
+    // the value boxed, for callers that do not know the column type
     public Comparable<?> getRecord(int index) {
-        return records.elementAt(index);
+        switch (format.getType(index)) {
+            case PageFormat.TYPE_INTEGER:
+                return getInt(index);
+            case PageFormat.TYPE_DOUBLE:
+                return getDouble(index);
+            default:
+                return getString(index);
+        }
+    }
+
+    public int getRecordCount() {
+        return format.getColumnCount();
     }
 
     public void setRecord(Object record, int index) {
-        records.setElementAt((Comparable<?>)record, index);
+        store(record, index);
+    }
+
+    // writes the slots directly, the constructors use it instead of the
+    // overridable setters
+    private void store(Object record, int index) {
+        int slot = format.getSlot(index);
+        switch (format.getType(index)) {
+            case PageFormat.TYPE_INTEGER:
+                numbers[slot] = (Integer) record;
+                break;
+            case PageFormat.TYPE_DOUBLE:
+                numbers[slot] = Double.doubleToRawLongBits((Double) record);
+                break;
+            default:
+                strings[slot] = (String) record;
+        }
+    }
+
+    // a tuple with the same values that changes independently of this one
+    public Tuple copy() {
+        Tuple tuple = new Tuple(format);
+        System.arraycopy(numbers, 0, tuple.numbers, 0, numbers.length);
+        if (strings != null)
+            System.arraycopy(strings, 0, tuple.strings, 0, strings.length);
+        return tuple;
     }
 
     public String toString() {
-        return records.stream().map(Object::toString).collect(Collectors.joining(","));
+        StringBuilder builder = new StringBuilder();
+        for (int index = 0; index < getRecordCount(); index++) {
+            if (index > 0)
+                builder.append(',');
+            builder.append(getRecord(index));
+        }
+        return builder.toString();
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
     public int compareTo(Tuple tuple) {
-        Comparable haga1 = (Comparable) this.getRecord(this.clusteringIndex);
-        Comparable haga2 = (Comparable) tuple.getRecord(tuple.clusteringIndex);
+        int index1 = this.format.getClusteringIndex();
+        int index2 = tuple.format.getClusteringIndex();
+        byte type = this.format.getType(index1);
+
+        if (type == tuple.format.getType(index2)) {
+            switch (type) {
+                case PageFormat.TYPE_INTEGER:
+                    return Integer.compare(this.getInt(index1), tuple.getInt(index2));
+                case PageFormat.TYPE_DOUBLE:
+                    return Double.compare(this.getDouble(index1), tuple.getDouble(index2));
+                default:
+                    return this.getString(index1).compareTo(tuple.getString(index2));
+            }
+        }
+
+        Comparable haga1 = (Comparable) this.getRecord(index1);
+        Comparable haga2 = (Comparable) tuple.getRecord(index2);
         return haga1.compareTo(haga2);
     }
 
     public boolean equals(Object object) {
         if (!(object instanceof Tuple))
             return false;
-        
-        Tuple tuple = (Tuple)object;
-        return tuple.clusteringIndex == this.clusteringIndex && this.compareTo(tuple) == 0;
+
+        Tuple tuple = (Tuple) object;
+        return tuple.format.getClusteringIndex() == this.format.getClusteringIndex() && this.compareTo(tuple) == 0;
     }
 
+    // equal tuples have the same clustering key, so only the key is hashed
     public int hashCode() {
-        return Objects.hash(records, clusteringIndex);
+        return getRecord(format.getClusteringIndex()).hashCode() * 31 + format.getClusteringIndex();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        Vector<Comparable<?>> records = new Vector<>(getRecordCount());
+        for (int index = 0; index < getRecordCount(); index++)
+            records.add(getRecord(index));
+
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("records", records);
+        fields.put("clusteringIndex", format.getClusteringIndex());
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        Vector<Comparable<?>> records = (Vector<Comparable<?>>) fields.get("records", null);
+        int clusteringIndex = fields.get("clusteringIndex", 0);
+
+        byte[] types = new byte[records.size()];
+        try {
+            for (int index = 0; index < types.length; index++)
+                types[index] = PageFormat.typeOf(records.get(index));
+        } catch (DBAppException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        init(RowFormat.of(types, clusteringIndex));
+        for (int index = 0; index < types.length; index++)
+            store(records.get(index), index);
     }
 }
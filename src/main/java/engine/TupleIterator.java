@@ -0,0 +1,137 @@
+package engine;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// A pull-based stream of tuples in clustering key order, what selectFromTable
+// returns. Every stage asks the one below it for a tuple only when its own
+// caller asks for one: a scan reads its next page once the tuples of the
+// last one are used up, a filter drops tuples as they pass and a merge
+// combines two streams on their clustering keys. So the first row comes as
+// soon as its page is read, and an iterator holds at most a page's worth of
+// tuples per scan.
+//
+// An iterator that reached its end closes itself. One that is left before
+// should be closed, which drops what it holds and closes the stages below
+// it. Errors reading a page are thrown as a RuntimeException around the
+// DBAppException, as Iterator allows no other.
+public abstract class TupleIterator implements Iterator<Tuple>, AutoCloseable {
+    private Tuple next;
+    private boolean closed;
+
+    // the next tuple, null at the end
+    protected abstract Tuple advance() throws DBAppException;
+
+    // lets go of what the stage holds, called once
+    protected void release() {
+    }
+
+    public boolean hasNext() {
+        if (next == null && !closed) {
+            try {
+                next = advance();
+            } catch (DBAppException e) {
+                close();
+                throw new RuntimeException(e);
+            }
+            if (next == null)
+                close();
+        }
+        return next != null;
+    }
+
+    public Tuple next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        Tuple tuple = next;
+        next = null;
+        return tuple;
+    }
+
+    public void close() {
+        if (closed)
+            return;
+
+        closed = true;
+        next = null;
+        release();
+    }
+
+    public static TupleIterator empty() {
+        return new TupleIterator() {
+            protected Tuple advance() {
+                return null;
+            }
+        };
+    }
+
+    // the tuples of source that filter matches
+    public static TupleIterator filter(TupleIterator source, Filter filter) {
+        return new TupleIterator() {
+            protected Tuple advance() {
+                while (source.hasNext()) {
+                    Tuple tuple = source.next();
+                    if (filter.matches(tuple))
+                        return tuple;
+                }
+                return null;
+            }
+
+            protected void release() {
+                source.close();
+            }
+        };
+    }
+
+    // the tuples of left and right combined by and, or or xor, both in
+    // clustering key order, each key at most once. the result keeps the order
+    public static TupleIterator merge(TupleIterator left, TupleIterator right, String operator) {
+        boolean and = operator.equalsIgnoreCase("and");
+        boolean or = operator.equalsIgnoreCase("or");
+        return new TupleIterator() {
+            private Tuple leftHead;
+            private Tuple rightHead;
+
+            protected Tuple advance() {
+                while (true) {
+                    if (leftHead == null && left.hasNext())
+                        leftHead = left.next();
+                    if (rightHead == null && right.hasNext())
+                        rightHead = right.next();
+                    if (leftHead == null && rightHead == null)
+                        return null;
+                    if (and && (leftHead == null || rightHead == null))
+                        return null;
+
+                    int diff = leftHead == null ? 1 : rightHead == null ? -1 : leftHead.compareTo(rightHead);
+                    Tuple tuple;
+                    if (diff < 0) {
+                        tuple = leftHead;
+                        leftHead = null;
+                    } else if (diff > 0) {
+                        tuple = rightHead;
+                        rightHead = null;
+                    } else {
+                        // on both sides
+                        tuple = leftHead;
+                        leftHead = null;
+                        rightHead = null;
+                        if (and || or)
+                            return tuple;
+                        continue;
+                    }
+                    if (!and)
+                        return tuple;
+                }
+            }
+
+            protected void release() {
+                leftHead = null;
+                rightHead = null;
+                left.close();
+                right.close();
+            }
+        };
+    }
+}
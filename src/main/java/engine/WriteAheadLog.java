@@ -0,0 +1,431 @@
+package engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Sequential redo log of the logical operations applied since the last
+// checkpoint, Tables\wal.log. Pages, ranges and indexes are only written back
+// by a checkpoint, normally run by the Checkpointer thread; until then the log
+// is what makes an operation durable.
+//
+// record
+//   int  length           of the payload
+//   int  crc32            of the payload
+//   byte type             INSERT, UPDATE or DELETE
+//   utf  table name
+//   utf  clustering key   UPDATE only
+//   short count, then count times: utf column, byte type, value
+//
+// A value is written as in a page, except that a string is a utf when it is
+// short enough for one and an int length and its UTF-8 bytes otherwise.
+//
+// Operations are appended in memory in the order they are applied. commit
+// makes a record durable; callers that commit while a write is in progress
+// wait for it and are then written together with a single force, so
+// concurrent operations share one fsync.
+public class WriteAheadLog {
+    public static long maxLogSize = 16 * 1024 * 1024;
+
+    public static final byte INSERT = 1;
+    public static final byte UPDATE = 2;
+    public static final byte DELETE = 3;
+
+    // the value type of a string too long for writeUTF
+    private static final byte LONG_STRING = 4;
+
+    private static final String LOG_PATH = "Tables\\wal.log";
+    private static final String OLD_LOG_PATH = "Tables\\wal.old";
+
+    // taken before the WriteAheadLog lock, so only one checkpoint runs at a time
+    static final Object checkpointLock = new Object();
+
+    private static FileChannel channel;
+    private static ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private static long logSize;
+    private static long appendedRecords; // sequence number of the last appended record
+    private static long durableRecords; // sequence number of the last forced record
+    private static boolean writing;
+
+    private static long commits;
+    private static long forces;
+    private static long checkpoints;
+
+    // opens the log and redoes every operation logged after the last
+    // checkpoint, then checkpoints so the log starts out empty again
+    public static void open() throws DBAppException {
+        synchronized (checkpointLock) {
+            synchronized (WriteAheadLog.class) {
+                if (channel != null)
+                    return;
+
+                new File("Tables").mkdirs();
+
+                // a checkpoint that got as far as listing its files is
+                // finished, it already holds everything in wal.old
+                if (TableFile.finishCheckpoint()) {
+                    new File(OLD_LOG_PATH).delete();
+                    TableFile.endCheckpoint(new Hashtable<>());
+                }
+
+                if (new File(OLD_LOG_PATH).exists())
+                    recover(OLD_LOG_PATH);
+                if (new File(LOG_PATH).exists())
+                    recover(LOG_PATH);
+
+                channel = openLog(LOG_PATH);
+                try {
+                    logSize = channel.size();
+                } catch (IOException e) {
+                    throw new DBAppException("Could not open the log");
+                }
+            }
+
+            // also drops a torn record at the end of the log, later records
+            // must not be appended after it
+            if (logSize > 0 || new File(OLD_LOG_PATH).exists())
+                checkpoint();
+        }
+    }
+
+    private static FileChannel openLog(String path) throws DBAppException {
+        try {
+            return FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new DBAppException("Could not open the log");
+        }
+    }
+
+    // checkpoints and closes the log, open has to be called again before the
+    // next operation
+    public static void close() throws DBAppException {
+        synchronized (checkpointLock) {
+            if (channel == null)
+                return;
+
+            checkpoint();
+            synchronized (WriteAheadLog.class) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new DBAppException("Could not close the log");
+                }
+                channel = null;
+            }
+        }
+    }
+
+    public static synchronized long logInsert(String tableName, Hashtable<String, Object> values)
+            throws DBAppException {
+        return append(INSERT, tableName, null, values);
+    }
+
+    public static synchronized long logUpdate(String tableName, String clusteringKeyValue,
+            Hashtable<String, Object> values) throws DBAppException {
+        return append(UPDATE, tableName, clusteringKeyValue, values);
+    }
+
+    public static synchronized long logDelete(String tableName, Hashtable<String, Object> values)
+            throws DBAppException {
+        return append(DELETE, tableName, null, values);
+    }
+
+    private static long append(byte type, String tableName, String clusteringKeyValue,
+            Hashtable<String, Object> values) throws DBAppException {
+        byte[] payload = encode(type, tableName, clusteringKeyValue, values);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(payload.length);
+        header.putInt((int) crc.getValue());
+        pending.write(header.array(), 0, 8);
+        pending.write(payload, 0, payload.length);
+
+        return ++appendedRecords;
+    }
+
+    // returns once the record is on disk. the first caller to find no write in
+    // progress writes everything appended so far, the others wait for it
+    public static void commit(long record) throws DBAppException {
+        byte[] batch;
+        long last;
+
+        synchronized (WriteAheadLog.class) {
+            commits++;
+            while (writing && durableRecords < record)
+                waitForWriter();
+
+            if (durableRecords >= record)
+                return;
+
+            writing = true;
+            batch = pending.toByteArray();
+            pending.reset();
+            last = appendedRecords;
+        }
+
+        boolean written = false;
+        try {
+            write(batch);
+            written = true;
+        } finally {
+            synchronized (WriteAheadLog.class) {
+                writing = false;
+                if (written) {
+                    durableRecords = last;
+                    forces++;
+                } else {
+                    // the batch goes back in front of what was appended since,
+                    // so the next commit writes it again
+                    byte[] appended = pending.toByteArray();
+                    pending.reset();
+                    pending.write(batch, 0, batch.length);
+                    pending.write(appended, 0, appended.length);
+                }
+                WriteAheadLog.class.notifyAll();
+            }
+        }
+    }
+
+    private static void waitForWriter() throws DBAppException {
+        try {
+            WriteAheadLog.class.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DBAppException("Interrupted while waiting for the log");
+        }
+    }
+
+    private static void write(byte[] batch) throws DBAppException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            while (buffer.hasRemaining())
+                channel.write(buffer, logSize + buffer.position());
+            channel.force(false);
+        } catch (IOException e) {
+            throw new DBAppException("Could not write the log");
+        }
+
+        synchronized (WriteAheadLog.class) {
+            logSize += batch.length;
+        }
+    }
+
+    // whether the log has grown enough that a checkpoint should start
+    public static synchronized boolean isFull() {
+        return logSize + pending.size() >= maxLogSize;
+    }
+
+    public static synchronized boolean isEmpty() {
+        return logSize + pending.size() == 0;
+    }
+
+    // writes every dirty page, range vector, page directory and index back to
+    // the table files and empties the log.
+    //
+    // operations are only held back while the dirty state is copied: the log
+    // is moved aside to wal.old, the dirty pages are copied into free slots of
+    // the table file mappings and everything else into byte arrays. the files
+    // are then synced and installed while operations go on logging to a fresh
+    // wal.log, and wal.old is deleted once they are. a crash before that is
+    // recovered by replaying wal.old and then wal.log on the previous
+    // checkpoint
+    public static void checkpoint() throws DBAppException {
+        synchronized (checkpointLock) {
+            Hashtable<TableFile, TableFile.Snapshot> snapshots;
+
+            synchronized (WriteAheadLog.class) {
+                while (writing)
+                    waitForWriter();
+
+                if (pending.size() > 0)
+                    write(pending.toByteArray());
+                pending.reset();
+                durableRecords = appendedRecords;
+                rotate();
+
+                BufferPool.writeDirtyPages();
+                snapshots = TableFile.snapshotAll();
+            }
+
+            TableFile.writeAll(snapshots);
+            new File(OLD_LOG_PATH).delete();
+            TableFile.endCheckpoint(snapshots);
+
+            synchronized (WriteAheadLog.class) {
+                checkpoints++;
+            }
+        }
+    }
+
+    private static void rotate() throws DBAppException {
+        if (logSize == 0)
+            return;
+
+        try {
+            channel.close();
+
+            Path log = Paths.get(LOG_PATH);
+            Path old = Paths.get(OLD_LOG_PATH);
+            if (Files.exists(old)) {
+                // an earlier checkpoint did not finish, its records are kept
+                FileChannel oldLog = FileChannel.open(old, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                oldLog.write(ByteBuffer.wrap(Files.readAllBytes(log)));
+                oldLog.force(false);
+                oldLog.close();
+                Files.delete(log);
+            } else {
+                Files.move(log, old, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            throw new DBAppException("Could not rotate the log");
+        }
+
+        channel = openLog(LOG_PATH);
+        logSize = 0;
+    }
+
+    private static void recover(String path) throws DBAppException {
+        ByteBuffer log = ByteBuffer.wrap(Serializer.readBytes(path));
+
+        while (log.remaining() >= 8) {
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length < 0 || length > log.remaining())
+                break; // torn write at the end of the log
+
+            byte[] payload = new byte[length];
+            log.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum)
+                break;
+
+            redo(payload);
+        }
+    }
+
+    // operations are logged after they were applied successfully, so the
+    // only one that cannot be applied again is an insert of a row that the
+    // checkpointed files already hold, which is skipped. an update or delete
+    // of a row that is already changed or gone changes nothing. any other
+    // failure means the log was not fully redone and is thrown
+    private static void redo(byte[] payload) throws DBAppException {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = in.readByte();
+            String tableName = in.readUTF();
+            String clusteringKeyValue = type == UPDATE ? in.readUTF() : null;
+            Hashtable<String, Object> values = readValues(in);
+
+            Table table = Catalog.getTable(tableName);
+            switch (type) {
+                case INSERT:
+                    if (!table.containsKey(values.get(table.getClusteringColumn())))
+                        table.insert(values);
+                    break;
+                case UPDATE:
+                    table.update(clusteringKeyValue, values);
+                    break;
+                case DELETE:
+                    table.deleteTuple(values);
+                    break;
+            }
+        } catch (IOException e) {
+            throw new DBAppException("Corrupted log record");
+        } catch (DBAppException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DBAppException("Could not redo log record: " + e);
+        }
+    }
+
+    private static byte[] encode(byte type, String tableName, String clusteringKeyValue,
+            Hashtable<String, Object> values) throws DBAppException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(type);
+            out.writeUTF(tableName);
+            if (type == UPDATE)
+                out.writeUTF(clusteringKeyValue);
+
+            out.writeShort(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                out.writeUTF(entry.getKey());
+                Object value = entry.getValue();
+                byte valueType = PageFormat.typeOf(value);
+                // a char takes at most 3 bytes in a utf
+                if (valueType == PageFormat.TYPE_STRING && ((String) value).length() > 0xFFFF / 3)
+                    valueType = LONG_STRING;
+                out.writeByte(valueType);
+                switch (valueType) {
+                    case PageFormat.TYPE_INTEGER:
+                        out.writeInt((Integer) value);
+                        break;
+                    case PageFormat.TYPE_DOUBLE:
+                        out.writeDouble((Double) value);
+                        break;
+                    case LONG_STRING:
+                        byte[] utf8 = ((String) value).getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(utf8.length);
+                        out.write(utf8);
+                        break;
+                    default:
+                        out.writeUTF((String) value);
+                }
+            }
+
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new DBAppException("Could not encode log record");
+        }
+    }
+
+    private static Hashtable<String, Object> readValues(DataInputStream in) throws IOException {
+        Hashtable<String, Object> values = new Hashtable<>();
+        int count = in.readShort();
+        for (int i = 0; i < count; i++) {
+            String column = in.readUTF();
+            switch (in.readByte()) {
+                case PageFormat.TYPE_INTEGER:
+                    values.put(column, in.readInt());
+                    break;
+                case PageFormat.TYPE_DOUBLE:
+                    values.put(column, in.readDouble());
+                    break;
+                case LONG_STRING:
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    values.put(column, new String(bytes, StandardCharsets.UTF_8));
+                    break;
+                default:
+                    values.put(column, in.readUTF());
+            }
+        }
+        return values;
+    }
+
+    public static synchronized String getStatistics() {
+        return "log=" + logSize + " bytes, commits=" + commits + ", forces=" + forces + ", commitsPerForce="
+                + String.format("%.2f", forces == 0 ? 0 : (double) commits / forces) + ", checkpoints=" + checkpoints;
+    }
+}
@@ -0,0 +1,108 @@
+package engine;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.util.Hashtable;
+import java.util.Map;
+
+// Minimum and maximum of every column of one page, by column ordinal. A zone
+// map only has to contain the page: inserts and updates widen it, deletes
+// leave it as it is, and it is computed again from the tuples whenever the
+// page is written back, so scans can skip every page whose bounds rule out
+// the value they look for.
+public class ZoneMap implements Serializable {
+    // the bounds are written as the two arrays they always were, see
+    // writeObject
+    private static final long serialVersionUID = 1L;
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("min", Comparable[].class),
+            new ObjectStreamField("max", Comparable[].class) };
+
+    private transient Comparable<?>[] min;
+    private transient Comparable<?>[] max;
+
+    private ZoneMap(int columnCount) {
+        min = new Comparable<?>[columnCount];
+        max = new Comparable<?>[columnCount];
+    }
+
+    // null for a page without tuples
+    public static ZoneMap of(Page page) {
+        ZoneMap zoneMap = null;
+        for (Tuple tuple : page.getTuples()) {
+            if (zoneMap == null)
+                zoneMap = new ZoneMap(tuple.getRecordCount());
+            zoneMap.add(tuple);
+        }
+        return zoneMap;
+    }
+
+    public static ZoneMap of(Tuple tuple) {
+        ZoneMap zoneMap = new ZoneMap(tuple.getRecordCount());
+        zoneMap.add(tuple);
+        return zoneMap;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void add(Tuple tuple) {
+        for (int column = 0; column < min.length; column++) {
+            Comparable value = tuple.getRecord(column);
+            if (min[column] == null || value.compareTo(min[column]) < 0)
+                min[column] = value;
+            if (max[column] == null || value.compareTo(max[column]) > 0)
+                max[column] = value;
+        }
+    }
+
+    // whether a tuple of the page might have column operator value
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public boolean mightSatisfy(int column, String operator, Object value) {
+        if (column < 0 || column >= min.length || min[column] == null
+                || min[column].getClass() != value.getClass())
+            return true;
+
+        Comparable low = min[column];
+        Comparable high = max[column];
+        switch (operator) {
+            case "=":
+                return low.compareTo(value) <= 0 && high.compareTo(value) >= 0;
+            case "!=":
+                return low.compareTo(value) != 0 || high.compareTo(value) != 0;
+            case ">":
+                return high.compareTo(value) > 0;
+            case ">=":
+                return high.compareTo(value) >= 0;
+            case "<":
+                return low.compareTo(value) < 0;
+            case "<=":
+                return low.compareTo(value) <= 0;
+        }
+        return true;
+    }
+
+    // whether a tuple of the page might hold every value of records
+    public boolean mightContain(Hashtable<String, Object> records, Hashtable<String, Integer> ordinals) {
+        for (Map.Entry<String, Object> record : records.entrySet()) {
+            Integer column = ordinals.get(record.getKey());
+            if (column != null && !mightSatisfy(column, "=", record.getValue()))
+                return false;
+        }
+        return true;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("min", min);
+        fields.put("max", max);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        min = (Comparable<?>[]) fields.get("min", null);
+        max = (Comparable<?>[]) fields.get("max", null);
+    }
+}
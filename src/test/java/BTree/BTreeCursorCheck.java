@@ -0,0 +1,123 @@
+package BTree;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Regression check for the leaf chain cursor: a range has to return the keys
+ * a sorted map returns for it, for every combination of open, inclusive and
+ * exclusive bounds on keys that are in the tree and keys that are not, after
+ * a seek, and while the tree changes between two calls to next.
+ *
+ *   java BTree.BTreeCursorCheck
+ */
+public class BTreeCursorCheck {
+    private static class MemoryStore implements PageStore {
+        private final HashMap<Integer, byte[]> pages = new HashMap<>();
+        private int next = 1;
+
+        public int newPageIndex() {
+            return next++;
+        }
+
+        public ByteBuffer readPage(int pageIndex) {
+            return ByteBuffer.wrap(pages.get(pageIndex));
+        }
+
+        public void writePage(int pageIndex, byte[] data) {
+            pages.put(pageIndex, data);
+        }
+
+        public void freePage(int pageIndex) {
+            pages.remove(pageIndex);
+        }
+    }
+
+    public static void main(String[] args) {
+        // a small order, so a range spans many leaves
+        BTreePlus index = new BTreePlus(4, new MemoryStore());
+        TreeMap<Integer, Integer> keys = new TreeMap<>();
+        for (int key = 0; key < 1000; key += 2) {
+            index.insert(key, key);
+            keys.put(key, key);
+        }
+
+        Integer[] bounds = { null, -1, 0, 1, 500, 501, 998, 999 };
+        for (Integer lower : bounds)
+            for (Integer upper : bounds)
+                for (boolean lowerInclusive : new boolean[] { true, false })
+                    for (boolean upperInclusive : new boolean[] { true, false }) {
+                        String what = lower + (lowerInclusive ? " <= " : " < ") + "key"
+                                + (upperInclusive ? " <= " : " < ") + upper;
+                        List<Object> expected = sub(keys, lower, lowerInclusive, upper, upperInclusive);
+                        check(read(index.cursor(lower, lowerInclusive, upper, upperInclusive)).equals(expected), what);
+                    }
+
+        BTreePlus.Cursor cursor = index.cursor(null, false, 100, true);
+        cursor.seek(91, true);
+        check(read(cursor).equals(List.of(92, 94, 96, 98, 100)), "seek to a key that is not in the tree");
+
+        cursor = index.cursor(null, false, null, false);
+        check(cursor.hasNext() && cursor.next().getFirst().equals(0), "first key before a seek back");
+        cursor.seek(996, false);
+        check(read(cursor).equals(List.of(998)), "seek past a key");
+
+        // leaves split and merge under the cursor, it goes on after the last
+        // key it returned. keys deleted ahead of it are not returned, keys
+        // no one touched are
+        cursor = index.cursor(null, false, null, false);
+        HashSet<Object> seen = new HashSet<>();
+        HashSet<Object> deleted = new HashSet<>();
+        int last = -1;
+        while (cursor.hasNext()) {
+            int key = (Integer) cursor.next().getFirst();
+            check(key > last, "keys ascend across changes");
+            seen.add(key);
+            last = key;
+            if (key % 10 == 0 && key + 20 < 1000) {
+                index.delete(key + 20, key + 20);
+                deleted.add(key + 20);
+                index.insert(key + 1, key + 1);
+            }
+        }
+        cursor.close();
+        for (Object key : deleted)
+            check(!seen.contains(key), "a key deleted ahead of the cursor is not returned");
+        for (int key = 0; key < 1000; key += 2)
+            if (key % 10 != 0)
+                check(seen.contains(key), "a key that stayed is returned");
+
+        System.out.println("cursor ok");
+    }
+
+    // also for bounds the wrong way round, which hold no key
+    private static List<Object> sub(TreeMap<Integer, Integer> keys, Integer lower, boolean lowerInclusive,
+            Integer upper, boolean upperInclusive) {
+        List<Object> result = new ArrayList<>();
+        for (int key : keys.keySet()) {
+            if (lower != null && (key < lower || (key == lower && !lowerInclusive)))
+                continue;
+            if (upper != null && (key > upper || (key == upper && !upperInclusive)))
+                continue;
+            result.add(key);
+        }
+        return result;
+    }
+
+    private static List<Object> read(BTreePlus.Cursor cursor) {
+        List<Object> keys = new ArrayList<>();
+        while (cursor.hasNext())
+            keys.add(cursor.next().getFirst());
+        cursor.close();
+        return keys;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+    }
+}
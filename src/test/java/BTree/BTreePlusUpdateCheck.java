@@ -0,0 +1,59 @@
+package BTree;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Regression check for BTreePlus.update: a value updated to the key it is
+ * already under has to stay under that key, and one moved to another key
+ * has to leave the old one.
+ *
+ *   java BTree.BTreePlusUpdateCheck
+ */
+public class BTreePlusUpdateCheck {
+    private static class MemoryStore implements PageStore {
+        private final HashMap<Integer, byte[]> pages = new HashMap<>();
+        private int next = 1;
+
+        public int newPageIndex() {
+            return next++;
+        }
+
+        public ByteBuffer readPage(int pageIndex) {
+            return ByteBuffer.wrap(pages.get(pageIndex));
+        }
+
+        public void writePage(int pageIndex, byte[] data) {
+            pages.put(pageIndex, data);
+        }
+
+        public void freePage(int pageIndex) {
+            pages.remove(pageIndex);
+        }
+    }
+
+    public static void main(String[] args) {
+        BTreePlus index = new BTreePlus(new MemoryStore());
+        index.insert(5, 42);
+        index.insert(5, 43);
+
+        index.update(5, 5, 42);
+        check(index.search(5) != null && index.search(5).contains(42), "same key keeps the value");
+
+        index.update(5, 7, 42);
+        check(!index.search(5).contains(42), "moved value left the old key");
+        check(index.search(5).contains(43), "other value of the old key stays");
+        check(index.search(7) != null && index.search(7).contains(42), "moved value is under the new key");
+
+        index.insert(9, 1);
+        index.update(9, 9, 1);
+        check(index.search(9) != null && index.search(9).size() == 1, "only value of a key survives");
+
+        System.out.println("update ok");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,97 @@
+package BTree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.Vector;
+
+/**
+ * Regression check for PostingList: a list has to hold the same values as a
+ * sorted set whatever its containers are, through the array to bitmap switch
+ * and back, for negative values and the ends of a container, and after and,
+ * or and a write and read.
+ *
+ *   java BTree.PostingListCheck
+ */
+public class PostingListCheck {
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(42);
+
+        PostingList list1 = new PostingList();
+        PostingList list2 = new PostingList();
+        TreeSet<Integer> set1 = new TreeSet<>();
+        TreeSet<Integer> set2 = new TreeSet<>();
+
+        // one container filled far past ARRAY_MAXIMUM, sparse ones around it
+        // and the values at the ends of a container and of int
+        for (int i = 0; i < 40000; i++) {
+            int value = random.nextInt(8) == 0 ? random.nextInt() : 0x10000 + random.nextInt(0x10000);
+            check(list1.add(value) == set1.add(value), "add reports a new value");
+            value = random.nextInt(4) == 0 ? -random.nextInt(0x30000) : 0x10000 + random.nextInt(0x8000);
+            check(list2.add(value) == set2.add(value), "add reports a new value");
+        }
+        for (int value : new int[] { Integer.MIN_VALUE, Integer.MAX_VALUE, -1, 0, 0xFFFF, 0x10000 }) {
+            list1.add(value);
+            set1.add(value);
+        }
+        same(list1, set1, "after adds");
+
+        // back below ARRAY_MAXIMUM, so the bitmap turns into an array again
+        for (int value : new TreeSet<>(set1)) {
+            if (value >= 0x10000 && value < 0x20000 && random.nextInt(10) != 0) {
+                check(list1.remove(value), "remove finds the value");
+                set1.remove(value);
+            }
+        }
+        int missing = 0x10000;
+        while (set1.contains(missing))
+            missing++;
+        check(!list1.remove(missing), "remove of a missing value");
+        same(list1, set1, "after removes");
+
+        TreeSet<Integer> union = new TreeSet<>(set1);
+        union.addAll(set2);
+        same(PostingList.or(list1, list2), union, "or");
+
+        TreeSet<Integer> intersection = new TreeSet<>(set1);
+        intersection.retainAll(set2);
+        same(PostingList.and(list1, list2), intersection, "and");
+
+        same(read(list1), set1, "after write and read");
+        same(new PostingList(set2), set2, "built from a collection");
+
+        // values that are not ints are kept apart and come after the ints
+        PostingList mixed = new PostingList();
+        mixed.add("b");
+        mixed.add(3);
+        mixed.add("a");
+        mixed.add(-3);
+        check(!mixed.add("a"), "a value is added once");
+        check(mixed.toVector().toString().equals("[-3, 3, a, b]"), "ints in order, then the other values");
+        check(read(mixed).toVector().equals(mixed.toVector()), "other values are written and read");
+        check(PostingList.and(mixed, read(mixed)).size() == 4, "other values are intersected");
+
+        System.out.println("posting list ok");
+    }
+
+    private static PostingList read(PostingList list) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        list.write(new DataOutputStream(bytes));
+        return PostingList.read(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    private static void same(PostingList list, TreeSet<Integer> set, String what) {
+        check(list.size() == set.size(), what + ": size");
+        check(list.toVector().equals(new Vector<Object>(set)), what + ": values in order");
+        for (int value : set)
+            check(list.contains(value), what + ": contains");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,71 @@
+package engine;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Regression check for LZ4Codec: every block has to decode to the bytes it
+ * was encoded from, whether it compresses or not, and a cut off block has to
+ * be reported instead of decoded.
+ *
+ *   java engine.LZ4CodecCheck
+ */
+public class LZ4CodecCheck {
+    public static void main(String[] args) throws DBAppException {
+        Random random = new Random(42);
+
+        // incompressible, around the lengths where the encoder stops looking
+        // for matches and where a literal run needs extra length bytes
+        for (int length : new int[] { 0, 1, 4, 12, 13, 17, 15 + 255, 15 + 256, 65536, 1 << 20 }) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            byte[] frame = roundTrip(data, "random " + length);
+            check(frame.length <= length + length / 255 + 16 + 6, "random " + length + " grows by at most the bound");
+        }
+
+        // highly repetitive, one byte and a short pattern, so matches overlap
+        // the bytes they copy and need long match lengths
+        byte[] zeros = new byte[1 << 20];
+        check(roundTrip(zeros, "zeros").length < zeros.length / 100, "zeros compress");
+
+        byte[] pattern = new byte[1 << 20];
+        for (int i = 0; i < pattern.length; i++)
+            pattern[i] = (byte) "abc".charAt(i % 3);
+        check(roundTrip(pattern, "pattern").length < pattern.length / 100, "pattern compresses");
+
+        // a random block repeated, a short one that the hash table still
+        // holds when it comes again, and one just within and one just beyond
+        // the largest offset a match can have
+        for (int distance : new int[] { 1000, 65535, 65536 }) {
+            byte[] block = new byte[distance];
+            random.nextBytes(block);
+            byte[] repeated = new byte[Math.max(distance * 2, 1 << 16)];
+            for (int i = 0; i < repeated.length; i++)
+                repeated[i] = block[i % distance];
+            byte[] frame = roundTrip(repeated, "repeated at " + distance);
+            if (distance == 1000)
+                check(frame.length < repeated.length / 10, "short repeats compress");
+        }
+
+        byte[] frame = Codec.LZ4.compress(pattern);
+        try {
+            Codec.decompress(Arrays.copyOf(frame, frame.length / 2));
+            throw new AssertionError("cut off block decodes");
+        } catch (DBAppException expected) {
+        }
+
+        System.out.println("lz4 ok");
+    }
+
+    private static byte[] roundTrip(byte[] data, String what) throws DBAppException {
+        byte[] frame = Codec.LZ4.compress(data);
+        check(Codec.isCompressed(frame), what + " is framed");
+        check(Arrays.equals(Codec.decompress(frame), data), what + " decodes to its input");
+        return frame;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+    }
+}
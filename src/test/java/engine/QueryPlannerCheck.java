@@ -0,0 +1,128 @@
+package engine;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Regression check for QueryPlanner: comparisons and-ed on one column have to
+ * be narrowed into the one range that drives or scans the select, and the
+ * rows have to be the ones the condition holds for, in clustering key order.
+ *
+ * The check opens a database in a scratch directory, in a second JVM as the
+ * database paths are relative to the working directory.
+ *
+ *   java engine.QueryPlannerCheck
+ */
+public class QueryPlannerCheck {
+    private static final int ROWS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("plan")) {
+            plan();
+            return;
+        }
+
+        Path directory = Files.createTempDirectory("planner");
+        try {
+            new File(directory.toFile(), "resources").mkdirs();
+            Files.writeString(directory.resolve("resources\\DBApp.config"), "MaximumRowsCountinPage = 50\n");
+
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            // the class path may be relative to this process's directory
+            String classPath = Stream.of(System.getProperty("java.class.path").split(File.pathSeparator))
+                    .map(entry -> new File(entry).getAbsolutePath()).collect(Collectors.joining(File.pathSeparator));
+            Process process = new ProcessBuilder(java, "-cp", classPath, QueryPlannerCheck.class.getName(), "plan")
+                    .directory(directory.toFile()).inheritIO().start();
+            check(process.waitFor() == 0, "selects are planned and answered");
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+
+        System.out.println("planner ok");
+    }
+
+    private static void plan() throws DBAppException {
+        DBApp db = new DBApp();
+        db.init();
+
+        Hashtable<String, String> columns = new Hashtable<>();
+        columns.put("id", "java.lang.Integer");
+        columns.put("name", "java.lang.String");
+        columns.put("gpa", "java.lang.Double");
+        db.createTable("Plan", "id", columns);
+        db.createIndex("Plan", "gpa", "gpaIndex");
+
+        for (int i = 0; i < ROWS; i++) {
+            Hashtable<String, Object> row = new Hashtable<>();
+            row.put("id", i);
+            row.put("name", "n" + i % 100);
+            row.put("gpa", gpa(i));
+            db.insertIntoTable("Plan", row);
+        }
+
+        select(db, "clustering range 150 < id < 200",
+                new SQLTerm[] { term("id", ">=", 100), term("id", "<", 200), term("id", ">", 150) },
+                new String[] { "AND", "AND" }, i -> i > 150 && i < 200);
+
+        select(db, "1.0 < gpa <= 1.5",
+                new SQLTerm[] { term("gpa", ">", 1.0), term("gpa", "<=", 1.5) },
+                new String[] { "AND" }, i -> gpa(i) > 1.0 && gpa(i) <= 1.5);
+
+        select(db, "clustering range 10 < id <= 5",
+                new SQLTerm[] { term("id", "=", 5), term("id", ">", 10) },
+                new String[] { "AND" }, i -> false);
+
+        select(db, "clustering range 3 <= id < 1000",
+                new SQLTerm[] { term("name", "=", "n3"), term("id", "<", 1000), term("id", ">=", 3) },
+                new String[] { "AND", "AND" }, i -> i % 100 == 3 && i < 1000);
+
+        db.close();
+    }
+
+    private static double gpa(int i) {
+        return (i % 40) / 10.0;
+    }
+
+    private static SQLTerm term(String column, String operator, Object value) {
+        SQLTerm term = new SQLTerm();
+        term._strTableName = "Plan";
+        term._strColumnName = column;
+        term._strOperator = operator;
+        term._objValue = value;
+        return term;
+    }
+
+    private static void select(DBApp db, String plan, SQLTerm[] terms, String[] operators, IntPredicate condition)
+            throws DBAppException {
+        List<Object> ids = new ArrayList<>();
+        try (TupleIterator rows = db.selectFromTable(terms, operators)) {
+            int id = Catalog.getTable("Plan").getIndexOfColumn("id");
+            while (rows.hasNext())
+                ids.add(rows.next().getRecord(id));
+        }
+
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++)
+            if (condition.test(i))
+                expected.add(i);
+
+        String lastPlan = QueryPlanner.getLastPlan();
+        check(lastPlan != null && lastPlan.contains(plan), "plan " + plan + ", was " + lastPlan);
+        check(ids.equals(expected), "rows of " + plan);
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+    }
+}
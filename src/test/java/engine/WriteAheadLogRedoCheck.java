@@ -0,0 +1,140 @@
+package engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Regression check for the redo of WriteAheadLog: operations that were
+ * committed to the log but never checkpointed have to be there after the
+ * process dies and the database is opened again.
+ *
+ * The check runs two JVMs in a scratch directory, one that inserts, updates
+ * and deletes and then halts without a checkpoint, and one that opens the
+ * database and reads the rows back.
+ *
+ *   java engine.WriteAheadLogRedoCheck
+ */
+public class WriteAheadLogRedoCheck {
+    private static final int ROWS = 500;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("crash")) {
+            crash();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("recover")) {
+            recover();
+            return;
+        }
+
+        Path directory = Files.createTempDirectory("redo");
+        try {
+            // no checkpoint runs on its own before the crash
+            new File(directory.toFile(), "resources").mkdirs();
+            Files.writeString(directory.resolve("resources\\DBApp.config"),
+                    "MaximumRowsCountinPage = 50\nCheckpointIntervalInMillis = 3600000\nCheckpointDirtyRatio = 1.0\n");
+
+            check(run(directory, "crash") == 0, "crashing process logged its operations");
+            check(run(directory, "recover") == 0, "recovered rows are the logged ones");
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+
+        System.out.println("redo ok");
+    }
+
+    private static int run(Path directory, String mode) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        // the class path may be relative to this process's directory
+        String classPath = Stream.of(System.getProperty("java.class.path").split(File.pathSeparator))
+                .map(entry -> new File(entry).getAbsolutePath()).collect(Collectors.joining(File.pathSeparator));
+        Process process = new ProcessBuilder(java, "-cp", classPath,
+                WriteAheadLogRedoCheck.class.getName(), mode).directory(directory.toFile()).inheritIO().start();
+        return process.waitFor();
+    }
+
+    private static void crash() throws DBAppException {
+        DBApp db = new DBApp();
+        db.init();
+
+        Hashtable<String, String> columns = new Hashtable<>();
+        columns.put("id", "java.lang.Integer");
+        columns.put("name", "java.lang.String");
+        columns.put("gpa", "java.lang.Double");
+        db.createTable("Redo", "id", columns);
+        db.createIndex("Redo", "gpa", "gpaIndex");
+
+        for (int i = 0; i < ROWS; i++) {
+            Hashtable<String, Object> row = new Hashtable<>();
+            row.put("id", i);
+            row.put("name", "n" + i);
+            row.put("gpa", (i % 40) / 10.0);
+            db.insertIntoTable("Redo", row);
+        }
+
+        Hashtable<String, Object> update = new Hashtable<>();
+        update.put("name", "updated");
+        update.put("gpa", 9.5);
+        db.updateTable("Redo", "5", update);
+
+        Hashtable<String, Object> delete = new Hashtable<>();
+        delete.put("name", "n7");
+        db.deleteFromTable("Redo", delete);
+
+        if (WriteAheadLog.isEmpty())
+            Runtime.getRuntime().halt(1);
+        Runtime.getRuntime().halt(0);
+    }
+
+    private static void recover() throws DBAppException {
+        DBApp db = new DBApp();
+        db.init();
+        Table table = Catalog.getTable("Redo");
+        int name = table.getIndexOfColumn("name");
+        int gpa = table.getIndexOfColumn("gpa");
+
+        SQLTerm all = new SQLTerm();
+        all._strTableName = "Redo";
+        all._strColumnName = "id";
+        all._strOperator = ">=";
+        all._objValue = 0;
+
+        int count = 0;
+        try (TupleIterator rows = db.selectFromTable(new SQLTerm[] { all }, new String[0])) {
+            while (rows.hasNext()) {
+                Tuple row = rows.next();
+                check(!row.getRecord(name).equals("n7"), "deleted row stays deleted");
+                count++;
+            }
+        }
+        check(count == ROWS - 1, "every inserted row is redone");
+
+        SQLTerm updated = new SQLTerm();
+        updated._strTableName = "Redo";
+        updated._strColumnName = "gpa";
+        updated._strOperator = "=";
+        updated._objValue = 9.5;
+
+        try (TupleIterator rows = db.selectFromTable(new SQLTerm[] { updated }, new String[0])) {
+            check(rows.hasNext(), "updated row is found through the index");
+            Tuple row = rows.next();
+            check(row.getRecord(name).equals("updated") && row.getRecord(gpa).equals(9.5), "update is redone");
+            check(!rows.hasNext(), "only the updated row has the new value");
+        }
+
+        db.close();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+    }
+}